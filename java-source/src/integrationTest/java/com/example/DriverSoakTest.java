@@ -0,0 +1,186 @@
+package com.example;
+
+import com.example.metrics.LatencyHistogram;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.corda.testing.driver.Driver.driver;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the example API of two nodes over HTTP for a fixed duration and records end-to-end latency and errors per
+ * endpoint.
+ * <p>
+ * The nodes run in process, so heap and thread counts are sampled in this JVM, once after the warm-up and once at
+ * the end. The test fails if the error rate, heap growth or thread growth exceeds its limit. Settings are read from
+ * system properties: soak.durationSeconds, soak.warmupSeconds, soak.concurrency, soak.createRatio,
+ * soak.maxErrorRate, soak.maxHeapGrowthMb and soak.maxThreadGrowth. The report is written to
+ * build/reports/soak/results.json.
+ */
+public class DriverSoakTest {
+    private final TestIdentity bankA = new TestIdentity(new CordaX500Name("BankA", "", "GB"));
+    private final TestIdentity bankB = new TestIdentity(new CordaX500Name("BankB", "", "US"));
+
+    private final long durationSeconds = Long.getLong("soak.durationSeconds", 60);
+    private final long warmupSeconds = Long.getLong("soak.warmupSeconds", 10);
+    private final int concurrency = Integer.getInteger("soak.concurrency", 4);
+    private final double createRatio = Double.parseDouble(System.getProperty("soak.createRatio", "0.3"));
+    private final double maxErrorRate = Double.parseDouble(System.getProperty("soak.maxErrorRate", "0.01"));
+    private final long maxHeapGrowthMb = Long.getLong("soak.maxHeapGrowthMb", 256);
+    private final int maxThreadGrowth = Integer.getInteger("soak.maxThreadGrowth", 20);
+
+    private static final List<String> READ_ENDPOINTS = ImmutableList.of("ious", "my-ious", "me", "peers");
+
+    private static final class EndpointStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        private Map<String, Object> report() {
+            final Map<String, Object> report = new LinkedHashMap<>();
+            report.put("requests", latency.count());
+            report.put("errors", errors.sum());
+            report.put("p50Millis", latency.percentileMillis(0.50));
+            report.put("p99Millis", latency.percentileMillis(0.99));
+            report.put("p999Millis", latency.percentileMillis(0.999));
+            report.put("maxMillis", latency.maxNanos() / 1e6);
+            return report;
+        }
+    }
+
+    private final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+
+    @Test
+    public void apiSoak() {
+        driver(new DriverParameters().withIsDebug(false).withStartNodesInProcess(true), dsl -> {
+            List<CordaFuture<NodeHandle>> handleFutures = ImmutableList.of(
+                    dsl.startNode(new NodeParameters().withProvidedName(bankA.getName())),
+                    dsl.startNode(new NodeParameters().withProvidedName(bankB.getName()))
+            );
+
+            try {
+                final NodeHandle nodeA = handleFutures.get(0).get();
+                final NodeHandle nodeB = handleFutures.get(1).get();
+                final Map<String, CordaX500Name> apis = new LinkedHashMap<>();
+                apis.put("http://" + dsl.startWebserver(nodeA).get().getListenAddress() + "/api/example/", bankB.getName());
+                apis.put("http://" + dsl.startWebserver(nodeB).get().getListenAddress() + "/api/example/", bankA.getName());
+
+                final OkHttpClient client = new OkHttpClient.Builder()
+                        .connectTimeout(30, TimeUnit.SECONDS)
+                        .readTimeout(60, TimeUnit.SECONDS)
+                        .build();
+
+                drive(client, apis, warmupSeconds);
+                stats.clear();
+                final long heapBefore = usedHeapAfterGc();
+                final int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+                drive(client, apis, durationSeconds);
+
+                final long heapGrowthMb = (usedHeapAfterGc() - heapBefore) / (1024 * 1024);
+                final int threadGrowth = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+                long requests = 0;
+                long errors = 0;
+                final Map<String, Object> endpoints = new TreeMap<>();
+                for (Map.Entry<String, EndpointStats> entry : stats.entrySet()) {
+                    requests += entry.getValue().latency.count();
+                    errors += entry.getValue().errors.sum();
+                    endpoints.put(entry.getKey(), entry.getValue().report());
+                }
+                final double errorRate = requests == 0 ? 1.0 : (double) errors / requests;
+
+                final Map<String, Object> report = new LinkedHashMap<>();
+                report.put("durationSeconds", durationSeconds);
+                report.put("concurrency", concurrency);
+                report.put("requests", requests);
+                report.put("errorRate", errorRate);
+                report.put("heapGrowthMb", heapGrowthMb);
+                report.put("threadGrowth", threadGrowth);
+                report.put("endpoints", endpoints);
+                final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+                final File resultsFile = new File("build/reports/soak/results.json");
+                resultsFile.getParentFile().mkdirs();
+                mapper.writeValue(resultsFile, report);
+                System.out.println(mapper.writeValueAsString(report));
+
+                assertTrue("Error rate " + errorRate + " exceeds " + maxErrorRate, errorRate <= maxErrorRate);
+                assertTrue("Heap grew by " + heapGrowthMb + "MB, suggesting a leak", heapGrowthMb <= maxHeapGrowthMb);
+                assertTrue("Thread count grew by " + threadGrowth + ", suggesting a leak", threadGrowth <= maxThreadGrowth);
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during test", e);
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * Runs [concurrency] workers against the APIs until the time is up. Each request is a create-iou with probability
+     * [createRatio], otherwise a read of one of the GET endpoints.
+     */
+    private void drive(OkHttpClient client, Map<String, CordaX500Name> apis, long seconds) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final List<String> baseUrls = new ArrayList<>(apis.keySet());
+        final ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                final Random random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    final String baseUrl = baseUrls.get(random.nextInt(baseUrls.size()));
+                    if (random.nextDouble() < createRatio) {
+                        final HttpUrl url = HttpUrl.parse(baseUrl + "create-iou").newBuilder()
+                                .addQueryParameter("iouValue", String.valueOf(1 + random.nextInt(100)))
+                                .addQueryParameter("partyName", apis.get(baseUrl).toString())
+                                .build();
+                        execute(client, "create-iou", new Request.Builder().url(url).put(RequestBody.create(null, new byte[0])).build());
+                    } else {
+                        final String endpoint = READ_ENDPOINTS.get(random.nextInt(READ_ENDPOINTS.size()));
+                        execute(client, endpoint, new Request.Builder().url(baseUrl + endpoint).build());
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(seconds + 120, TimeUnit.SECONDS);
+    }
+
+    private void execute(OkHttpClient client, String endpoint, Request request) {
+        final EndpointStats endpointStats = stats.computeIfAbsent(endpoint, name -> new EndpointStats());
+        final long start = System.nanoTime();
+        boolean failed;
+        try (Response response = client.newCall(request).execute()) {
+            response.body().string();
+            failed = !response.isSuccessful();
+        } catch (Exception e) {
+            failed = true;
+        }
+        endpointStats.latency.record(System.nanoTime() - start);
+        if (failed) {
+            endpointStats.errors.increment();
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        System.gc();
+        Thread.sleep(500);
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
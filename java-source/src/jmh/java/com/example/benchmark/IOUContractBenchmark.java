@@ -0,0 +1,65 @@
+package com.example.benchmark;
+
+import com.example.contract.IOUContract;
+import com.example.state.IOUState;
+import net.corda.core.transactions.LedgerTransaction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures [IOUContract.verify] against synthetic transactions.
+ * <p>
+ * [IOUContract.Commands.Create] only accepts a single output, and [IOUContract.Commands.Destroy] a single input, so for
+ * larger transactions these measure how quickly the contract rejects them. [IOUContract.Commands.CreateMany] accepts them all, one IOU per borrower, so it measures the
+ * full per-output checks, including the signer lookups and the duplicate-borrower check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IOUContractBenchmark {
+    // The number of IOUs in each transaction: outputs for the issuances, inputs for Destroy.
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int outputs;
+
+    private final IOUContract contract = new IOUContract();
+    private LedgerTransaction createTx;
+    private LedgerTransaction destroyTx;
+    private LedgerTransaction createManyTx;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final List<IOUState> states = LedgerFixtures.states(outputs);
+        createTx = LedgerFixtures.issuance(states, LedgerFixtures.create());
+        destroyTx = LedgerFixtures.consumption(states, LedgerFixtures.destroy());
+        createManyTx = LedgerFixtures.multiIssuance(LedgerFixtures.statesToDistinctBorrowers(outputs), LedgerFixtures.createMany());
+    }
+
+    @Benchmark
+    public void verifyCreate(Blackhole blackhole) {
+        verify(createTx, blackhole);
+    }
+
+    @Benchmark
+    public void verifyDestroy(Blackhole blackhole) {
+        verify(destroyTx, blackhole);
+    }
+
+    @Benchmark
+    public void verifyCreateMany(Blackhole blackhole) {
+        verify(createManyTx, blackhole);
+    }
+
+    private void verify(LedgerTransaction tx, Blackhole blackhole) {
+        try {
+            contract.verify(tx);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            blackhole.consume(e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.benchmark;
+
+import com.example.schema.IOUSchemaV1;
+import com.example.schema.IOUSchemaV2;
+import com.example.state.IOUState;
+import net.corda.core.serialization.SerializationFactory;
+import net.corda.testing.internal.GlobalSerializationEnvironment;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.corda.testing.internal.InternalSerializationTestHelpersKt.setGlobalSerialization;
+
+/**
+ * Measures the per-state costs paid when an [IOUState] is recorded: mapping it to each supported schema and
+ * serialising it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IOUStateBenchmark {
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int outputs;
+
+    private final IOUSchemaV1 schemaV1 = new IOUSchemaV1();
+    private final IOUSchemaV2 schemaV2 = new IOUSchemaV2();
+    private List<IOUState> states;
+    private GlobalSerializationEnvironment serializationEnvironment;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        serializationEnvironment = setGlobalSerialization(true);
+        states = LedgerFixtures.states(outputs);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        serializationEnvironment.unset();
+    }
+
+    @Benchmark
+    public void generateMappedObjectV1(Blackhole blackhole) {
+        for (IOUState state : states) {
+            blackhole.consume(state.generateMappedObject(schemaV1));
+        }
+    }
+
+    @Benchmark
+    public void generateMappedObjectV2(Blackhole blackhole) {
+        for (IOUState state : states) {
+            blackhole.consume(state.generateMappedObject(schemaV2));
+        }
+    }
+
+    @Benchmark
+    public void serialise(Blackhole blackhole) {
+        final SerializationFactory factory = SerializationFactory.Companion.getDefaultFactory();
+        for (IOUState state : states) {
+            blackhole.consume(factory.serialize(state, factory.getDefaultContext()));
+        }
+    }
+}
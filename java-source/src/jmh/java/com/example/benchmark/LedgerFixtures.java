@@ -0,0 +1,124 @@
+package com.example.benchmark;
+
+import com.example.contract.IOUContract;
+import com.example.state.IOUState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.testing.core.TestIdentity;
+
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.contract.IOUContract.IOU_CONTRACT_ID;
+
+/**
+ * Builds synthetic [LedgerTransaction]s directly, bypassing the ledger DSL, so that the benchmarks measure the contract
+ * and state code alone.
+ */
+final class LedgerFixtures {
+    static final TestIdentity lender = new TestIdentity(new CordaX500Name("MegaCorp", "London", "GB"));
+    static final TestIdentity borrower = new TestIdentity(new CordaX500Name("MiniCorp", "London", "GB"));
+    static final TestIdentity notary = new TestIdentity(new CordaX500Name("Notary", "London", "GB"));
+    private static final Instant issuedAt = Instant.parse("2018-01-01T00:00:00Z");
+    // Issuances must be notarised within a time window holding the IOUs' issuance time.
+    private static final TimeWindow timeWindow = TimeWindow.withTolerance(issuedAt, Duration.ofSeconds(30));
+
+    private LedgerFixtures() { }
+
+    static List<IOUState> states(int count) {
+        final List<IOUState> states = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            states.add(new IOUState(i + 1, lender.getParty(), borrower.getParty(), issuedAt, issuedAt.plusSeconds(86400), new UniqueIdentifier()));
+        }
+        return states;
+    }
+
+    /**
+     * IOUs from the lender to as many distinct borrowers, as issued together by [IOUContract.Commands.CreateMany].
+     */
+    static List<IOUState> statesToDistinctBorrowers(int count) {
+        final List<IOUState> states = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Party borrowerParty = new TestIdentity(new CordaX500Name("Borrower" + i, "London", "GB")).getParty();
+            states.add(new IOUState(i + 1, lender.getParty(), borrowerParty, issuedAt, issuedAt.plusSeconds(86400), new UniqueIdentifier()));
+        }
+        return states;
+    }
+
+    /**
+     * A transaction issuing the given states under a single command signed by the lender and every borrower.
+     */
+    static LedgerTransaction multiIssuance(List<IOUState> outputs, CommandData command) {
+        final List<Party> signers = new ArrayList<>(outputs.size() + 1);
+        signers.add(lender.getParty());
+        for (IOUState output : outputs) {
+            signers.add(output.getBorrower());
+        }
+        return transaction(ImmutableList.of(), outputs, command, signers);
+    }
+
+    /**
+     * A transaction issuing the given states under a single command signed by both parties.
+     */
+    static LedgerTransaction issuance(List<IOUState> outputs, CommandData command) {
+        return transaction(ImmutableList.of(), outputs, command);
+    }
+
+    /**
+     * A transaction consuming the given states under a single command signed by both parties.
+     */
+    static LedgerTransaction consumption(List<IOUState> inputs, CommandData command) {
+        return transaction(inputs, ImmutableList.of(), command);
+    }
+
+    static LedgerTransaction transaction(List<IOUState> inputs, List<IOUState> outputs, CommandData command) {
+        return transaction(inputs, outputs, command, ImmutableList.of(lender.getParty(), borrower.getParty()));
+    }
+
+    private static LedgerTransaction transaction(List<IOUState> inputs, List<IOUState> outputs, CommandData command, List<Party> signers) {
+        final Party notaryParty = notary.getParty();
+        final List<StateAndRef<ContractState>> inputRefs = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            inputRefs.add(new StateAndRef<>(
+                    new TransactionState<>(inputs.get(i), IOU_CONTRACT_ID, notaryParty),
+                    new StateRef(SecureHash.randomSHA256(), i)));
+        }
+        final List<TransactionState<ContractState>> outputStates = new ArrayList<>(outputs.size());
+        for (IOUState output : outputs) {
+            outputStates.add(new TransactionState<>(output, IOU_CONTRACT_ID, notaryParty));
+        }
+        final List<PublicKey> signerKeys = new ArrayList<>(signers.size());
+        for (Party signer : signers) {
+            signerKeys.add(signer.getOwningKey());
+        }
+        final CommandWithParties<CommandData> commandWithParties = new CommandWithParties<>(signerKeys, signers, command);
+        return new LedgerTransaction(
+                inputRefs,
+                outputStates,
+                ImmutableList.of(commandWithParties),
+                ImmutableList.of(),
+                SecureHash.randomSHA256(),
+                notaryParty,
+                timeWindow,
+                new PrivacySalt());
+    }
+
+    static IOUContract.Commands.Create create() {
+        return new IOUContract.Commands.Create();
+    }
+
+    static IOUContract.Commands.CreateMany createMany() {
+        return new IOUContract.Commands.CreateMany();
+    }
+
+    static IOUContract.Commands.Destroy destroy() {
+        return new IOUContract.Commands.Destroy();
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.benchmark;
+
+import com.example.contract.IOUContract;
+import com.example.flow.ExampleFlow;
+import com.example.metrics.LatencyHistogram;
+import com.example.service.ServicesReady;
+import com.example.state.IOUState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A fixed performance scenario whose results are compared against a checked-in baseline, failing the build on a
+ * regression. Run with 'gradlew perfTest'.
+ * <p>
+ * The scenario times contract verification, a batch of IOU flows across a [MockNetwork], and vault queries on the
+ * resulting vault. Each metric in the baseline file has a tolerance and a direction. A metric regresses when it is
+ * worse than its baseline by more than its tolerance, as a fraction. Running with '--update' (-PperfUpdateBaseline)
+ * records the measured values as the new baseline.
+ * Baselines are machine-specific, so re-record them on the machine that runs the gate. A metric without a baseline
+ * value is reported but passes, so that a checkout without recorded baselines can still run the gate. On the machine
+ * the baselines belong to, run with '--require-baselines' (-PperfRequireBaselines) so that a missing baseline fails
+ * instead of silently disabling its metric.
+ * <p>
+ * Usage: PerfGate <baseline file> <results file> [--update] [--require-baselines]
+ */
+public class PerfGate {
+    private static final int CONTRACT_RUNS = 5;
+    private static final int CONTRACT_ITERATIONS = Integer.getInteger("perf.contractIterations", 200_000);
+    private static final int FLOWS = Integer.getInteger("perf.flows", 200);
+    private static final int QUERIES = Integer.getInteger("perf.queries", 1_000);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: PerfGate <baseline file> <results file> [--update] [--require-baselines]");
+        }
+        final File baselineFile = new File(args[0]);
+        final File resultsFile = new File(args[1]);
+        final List<String> flags = Arrays.asList(args).subList(2, args.length);
+        final boolean update = flags.contains("--update");
+        final boolean requireBaselines = flags.contains("--require-baselines");
+
+        final Map<String, Double> measured = new LinkedHashMap<>();
+        measureContract(measured);
+        measureFlowsAndQueries(measured);
+
+        final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        resultsFile.getAbsoluteFile().getParentFile().mkdirs();
+        mapper.writeValue(resultsFile, measured);
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> baseline = mapper.readValue(baselineFile, Map.class);
+        @SuppressWarnings("unchecked")
+        final Map<String, Map<String, Object>> metrics = (Map<String, Map<String, Object>>) baseline.get("metrics");
+
+        if (update) {
+            for (Map.Entry<String, Map<String, Object>> metric : metrics.entrySet()) {
+                metric.getValue().put("baseline", measured.get(metric.getKey()));
+            }
+            mapper.writeValue(baselineFile, baseline);
+            System.out.println("Baseline updated in " + baselineFile.getAbsolutePath());
+            return;
+        }
+
+        final List<String> regressions = compare(metrics, measured, requireBaselines);
+        if (!regressions.isEmpty()) {
+            regressions.forEach(System.err::println);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Checks each metric in the baseline and prints a line for it, returning the regressions and, if baselines are
+     * required, the metrics that have none.
+     */
+    private static List<String> compare(Map<String, Map<String, Object>> metrics, Map<String, Double> measured, boolean requireBaselines) {
+        final List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Object>> metric : metrics.entrySet()) {
+            final String name = metric.getKey();
+            final Double value = measured.get(name);
+            if (value == null) {
+                throw new IllegalStateException("The scenario does not measure " + name);
+            }
+            final Number baselineValue = (Number) metric.getValue().get("baseline");
+            if (baselineValue == null) {
+                System.out.printf("%-40s %14.2f  NO BASELINE%n", name, value);
+                if (requireBaselines) {
+                    regressions.add(String.format("%s has no baseline; record one with -PperfUpdateBaseline", name));
+                }
+                continue;
+            }
+            final double tolerance = ((Number) metric.getValue().get("tolerance")).doubleValue();
+            final boolean higherIsBetter = Boolean.TRUE.equals(metric.getValue().get("higherIsBetter"));
+            final double change = (value - baselineValue.doubleValue()) / baselineValue.doubleValue();
+            final boolean regressed = higherIsBetter ? change < -tolerance : change > tolerance;
+            System.out.printf("%-40s %14.2f  baseline %14.2f  %+7.1f%%%s%n",
+                    name, value, baselineValue.doubleValue(), change * 100, regressed ? "  REGRESSED" : "");
+            if (regressed) {
+                regressions.add(String.format("%s regressed by %.1f%%, beyond its %.0f%% tolerance",
+                        name, Math.abs(change) * 100, tolerance * 100));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * The median time per verification over several runs, after a warm-up run.
+     */
+    private static void measureContract(Map<String, Double> measured) {
+        final IOUContract contract = new IOUContract();
+        final List<IOUState> states = LedgerFixtures.states(1);
+        final LedgerTransaction createTx = LedgerFixtures.issuance(states, LedgerFixtures.create());
+        final LedgerTransaction destroyTx = LedgerFixtures.consumption(states, LedgerFixtures.destroy());
+        measured.put("contract.verifyCreate.nanosPerOp", medianNanosPerOp(contract, createTx));
+        measured.put("contract.verifyDestroy.nanosPerOp", medianNanosPerOp(contract, destroyTx));
+    }
+
+    private static double medianNanosPerOp(IOUContract contract, LedgerTransaction tx) {
+        final double[] runs = new double[CONTRACT_RUNS];
+        for (int run = -1; run < CONTRACT_RUNS; run++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < CONTRACT_ITERATIONS; i++) {
+                contract.verify(tx);
+            }
+            if (run >= 0) {
+                runs[run] = (System.nanoTime() - start) / (double) CONTRACT_ITERATIONS;
+            }
+        }
+        Arrays.sort(runs);
+        return runs[CONTRACT_RUNS / 2];
+    }
+
+    /**
+     * Issues a batch of IOUs between two mock nodes after a small warm-up batch, then queries the lender's vault.
+     */
+    private static void measureFlowsAndQueries(Map<String, Double> measured) throws Exception {
+        final MockNetwork network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
+        try {
+            final StartedMockNode a = network.createPartyNode(null);
+            final StartedMockNode b = network.createPartyNode(null);
+            for (StartedMockNode node : ImmutableList.of(a, b)) {
+                node.registerInitiatedFlow(ExampleFlow.Acceptor.class);
+            }
+            network.runNetwork();
+            ServicesReady.await(network, ImmutableList.of(a, b));
+
+            runBatch(network, a, b, FLOWS / 10);
+            final long start = System.nanoTime();
+            runBatch(network, a, b, FLOWS);
+            measured.put("flow.batch.flowsPerSecond", FLOWS / ((System.nanoTime() - start) / 1e9));
+
+            final LatencyHistogram latency = new LatencyHistogram();
+            final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+            final PageSpecification page = new PageSpecification(1, 50);
+            for (int i = 0; i < QUERIES; i++) {
+                final long queryStart = System.nanoTime();
+                a.transaction(() -> a.getServices().getVaultService().queryBy(IOUState.class, criteria, page));
+                latency.record(System.nanoTime() - queryStart);
+            }
+            measured.put("vault.query.p50Micros", latency.percentileNanos(0.50) / 1e3);
+            measured.put("vault.query.p99Micros", latency.percentileNanos(0.99) / 1e3);
+        } finally {
+            network.stopNodes();
+        }
+    }
+
+    private static void runBatch(MockNetwork network, StartedMockNode lender, StartedMockNode borrower, int flows) throws Exception {
+        final List<CordaFuture<SignedTransaction>> futures = new ArrayList<>(flows);
+        for (int i = 0; i < flows; i++) {
+            futures.add(lender.startFlow(new ExampleFlow.Initiator(1 + i % 100, borrower.getInfo().getLegalIdentities().get(0))));
+        }
+        network.runNetwork();
+        for (CordaFuture<SignedTransaction> future : futures) {
+            future.get();
+        }
+    }
+
+    private PerfGate() {
+    }
+}
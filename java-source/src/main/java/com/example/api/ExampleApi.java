@@ -1,47 +1,209 @@
 package com.example.api;
 
+import com.example.contract.IOUContract;
 import com.example.flow.ExampleFlow;
+import com.example.metrics.MetricsRegistry;
 import com.example.schema.IOUSchemaV1;
+import com.example.schema.IOUSchemaV2;
 import com.example.state.IOUState;
+import com.example.trace.SpanExporter;
+import com.example.trace.TraceContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import net.corda.client.jackson.JacksonSupport;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowProgressHandle;
 import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.StatesNotAvailableException;
 import net.corda.core.node.services.Vault;
 import net.corda.core.node.services.vault.*;
 import net.corda.core.transactions.SignedTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rx.Subscription;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.lang.reflect.Field;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import static java.util.stream.Collectors.toList;
+import static javax.ws.rs.core.Response.Status.ACCEPTED;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.CREATED;
+import static javax.ws.rs.core.Response.Status.GATEWAY_TIMEOUT;
 import static javax.ws.rs.core.Response.Status.OK;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
 
 // This API is accessible from /api/example. All paths specified below are relative to it.
 @Path("example")
 public class ExampleApi {
     private final CordaRPCOps rpcOps;
     private final CordaX500Name myLegalName;
+    private final MetricsRegistry metrics;
+    private final MetricsRegistry.FlowMetrics initiatorMetrics;
+    private final MetricsRegistry.FlowMetrics multiIssuerMetrics;
+    private final MetricsRegistry.FlowMetrics destroyerMetrics;
+    private final VaultQueryMonitor vaultQueries;
+    // Each key's context is the id of the trace started by the request that first used it.
+    private final IdempotencyCache<String, SignedTransaction> createRequests = new IdempotencyCache<>(
+            Integer.getInteger("example.idempotency.maxKeys", 10_000),
+            Long.getLong("example.idempotency.retentionSeconds", 3_600L));
+    private final VaultQueryMonitor.Endpoint iousQueries;
+    private final VaultQueryMonitor.Endpoint myIousQueries;
+    private final VaultQueryMonitor.Endpoint issuedBucketsQueries;
+    private final VaultQueryMonitor.Endpoint maturityBucketsQueries;
+    private final VaultQueryMonitor.Endpoint warmUpQueries;
+    private final WarmUp warmUp;
+    // Only used by the warm-up thread, when the webserver's own mapper is not known.
+    private ObjectMapper warmUpMapper;
 
     private final List<String> serviceNames = ImmutableList.of("Notary");
 
+    // Upper bound on the number of range queries a single bucketed report may issue, each of which is an RPC round trip
+    // and a vault query. Two days of hourly buckets; a longer period needs wider buckets.
+    static private final int MAX_BUCKETS = 48;
+
+    // The least delay a client is asked to wait before retrying a destroy that may succeed later. Up to as much again is
+    // added at random.
+    static private final long DESTROY_RETRY_AFTER_SECONDS = Long.getLong("example.destroy.retryAfterSeconds", 1L);
+
+    // Whether the API warms itself up on construction, and how many times each warm-up step is run.
+    static private final boolean WARM_UP_ENABLED = Boolean.parseBoolean(System.getProperty("example.warmup.enabled", "true"));
+    static private final int WARM_UP_ITERATIONS = Integer.getInteger("example.warmup.iterations", 3);
+
     static private final Logger logger = LoggerFactory.getLogger(ExampleApi.class);
 
     public ExampleApi(CordaRPCOps rpcOps) {
+        this(rpcOps, new MetricsRegistry());
+    }
+
+    public ExampleApi(CordaRPCOps rpcOps, MetricsRegistry metrics) {
+        this(rpcOps, metrics, () -> null);
+    }
+
+    /**
+     * @param jsonMapper supplies the mapper the webserver serialises responses with, or null if it is not known, in
+     *                   which case the warm-up primes a mapper of its own.
+     */
+    public ExampleApi(CordaRPCOps rpcOps, MetricsRegistry metrics, Supplier<ObjectMapper> jsonMapper) {
         this.rpcOps = rpcOps;
         this.myLegalName = rpcOps.nodeInfo().getLegalIdentities().get(0).getName();
+        this.metrics = metrics;
+        this.initiatorMetrics = metrics.flow("Initiator");
+        this.multiIssuerMetrics = metrics.flow("MultiIssuer");
+        this.destroyerMetrics = metrics.flow("Destroyer");
+        this.vaultQueries = new VaultQueryMonitor(rpcOps, metrics);
+        this.iousQueries = vaultQueries.endpoint("ious");
+        this.myIousQueries = vaultQueries.endpoint("my-ious");
+        this.issuedBucketsQueries = vaultQueries.endpoint("ious/issued-buckets");
+        this.maturityBucketsQueries = vaultQueries.endpoint("ious/maturity-buckets");
+        this.warmUpQueries = vaultQueries.endpoint("warm-up");
+        metrics.gauge("example_node_flows_in_flight", "Flows currently running on the node, however they were started.", null, null, () -> {
+            try {
+                return rpcOps.stateMachinesSnapshot().size();
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        });
+
+        this.warmUp = warmUp(jsonMapper);
+        metrics.gauge("example_api_ready", "1 once the API has finished warming up, otherwise 0.", null, null, () -> warmUp.isReady() ? 1 : 0);
+        if (WARM_UP_ENABLED) {
+            warmUp.start();
+        } else {
+            warmUp.skip();
+        }
+    }
+
+    /**
+     * Primes what the first requests would otherwise pay for: the network map snapshot, party lookups, the vault
+     * queries behind /ious and /my-ious, and the Jackson serialisers for a [StateAndRef] of an [IOUState]. Besides
+     * loading and running the code on both sides of the RPC connection, this fills the caches that are built on
+     * first use, such as the node's query plans and the mapper's serialisers.
+     */
+    private WarmUp warmUp(Supplier<ObjectMapper> jsonMapper) {
+        return new WarmUp(WARM_UP_ITERATIONS)
+                .step("network-map", this::getPeers)
+                .step("party-lookup", () -> {
+                    rpcOps.wellKnownPartyFromX500Name(myLegalName);
+                    for (CordaX500Name peer : getPeers().get("peers")) {
+                        rpcOps.wellKnownPartyFromX500Name(peer);
+                    }
+                })
+                .step("vault-query", () -> {
+                    vaultQueries.query(warmUpQueries, new QueryCriteria.VaultQueryCriteria(), IOUState.class);
+                    vaultQueries.query(warmUpQueries, myIOUsCriteria(), IOUState.class);
+                })
+                .step("json", () -> {
+                    ObjectMapper mapper = jsonMapper.get();
+                    if (mapper == null) {
+                        if (warmUpMapper == null) {
+                            warmUpMapper = JacksonSupport.createDefaultMapper(rpcOps);
+                        }
+                        mapper = warmUpMapper;
+                    }
+                    final Party me = rpcOps.nodeInfo().getLegalIdentities().get(0);
+                    final IOUState iou = new IOUState(1, me, me, Instant.now(), Instant.now(), new UniqueIdentifier());
+                    mapper.writeValueAsBytes(ImmutableList.of(new StateAndRef<>(
+                            new TransactionState<>(iou, IOUContract.IOU_CONTRACT_ID, me),
+                            new StateRef(SecureHash.sha256("warm-up"), 0))));
+                    mapper.writeValueAsBytes(whoami());
+                });
+    }
+
+    /**
+     * Returns 200 once the API has warmed up, and 503 until then. Either way the body holds the warm-up's progress,
+     * with the first and last timing of each step.
+     */
+    @GET
+    @Path("ready")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getReady() {
+        return Response.status(warmUp.isReady() ? OK : SERVICE_UNAVAILABLE).entity(warmUp.report()).build();
+    }
+
+    /**
+     * Returns the web tier's metrics in the Prometheus text format.
+     */
+    @GET
+    @Path("metrics")
+    @Produces("text/plain; version=0.0.4")
+    public String getMetrics() {
+        return metrics.toPrometheusText();
+    }
+
+    /**
+     * Returns the slowest vault queries made by this API, and the query shapes that have taken the most time overall.
+     */
+    @GET
+    @Path("slow-queries")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getSlowQueries() {
+        return vaultQueries.slowQueries();
     }
 
     /**
@@ -77,7 +239,7 @@ public class ExampleApi {
     @Path("ious")
     @Produces(MediaType.APPLICATION_JSON)
     public List<StateAndRef<IOUState>> getIOUs() {
-        return rpcOps.vaultQuery(IOUState.class).getStates();
+        return vaultQueries.query(iousQueries, new QueryCriteria.VaultQueryCriteria(), IOUState.class).getStates();
     }
 
     /**
@@ -89,38 +251,220 @@ public class ExampleApi {
      * This end-point takes a Party name parameter as part of the path. If the serving node can't find the other party
      * in its network map cache, it will return an HTTP bad request.
      *
+     * An optional 'maturity' parameter gives the time at which the IOU falls due, in ISO-8601 format.
+     *
      * The flow is invoked asynchronously. It returns a future when the flow's call() method returns.
+     *
+     * Each call starts a trace, which the flow carries to the counterparty. Its id is returned in the 'X-Trace-Id'
+     * header so that the spans exported by this webserver and by both nodes can be matched up.
+     *
+     * A client that may retry should send an 'Idempotency-Key' header. A retry with the same key and parameters does
+     * not start another flow. It waits for the original flow, or returns its result if the flow has already finished,
+     * and the response carries 'Idempotent-Replayed: true' and the original request's 'X-Trace-Id'. Reusing a key with
+     * different parameters is a conflict. A key whose flow failed can be retried.
      */
     @PUT
     @Path("create-iou")
-    public Response createIOU(@QueryParam("iouValue") int iouValue, @QueryParam("partyName") CordaX500Name partyName) throws InterruptedException, ExecutionException {
+    public Response createIOU(@QueryParam("iouValue") int iouValue, @QueryParam("partyName") CordaX500Name partyName, @QueryParam("maturity") String maturity,
+                              @HeaderParam("Idempotency-Key") String idempotencyKey) throws InterruptedException, ExecutionException {
         if (iouValue <= 0) {
             return Response.status(BAD_REQUEST).entity("Query parameter 'iouValue' must be non-negative.\n").build();
         }
         if (partyName == null) {
             return Response.status(BAD_REQUEST).entity("Query parameter 'partyName' missing or has wrong format.\n").build();
         }
+        final Instant maturityTime;
+        try {
+            maturityTime = maturity == null ? null : Instant.parse(maturity);
+        } catch (DateTimeParseException ex) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'maturity' must be an ISO-8601 instant.\n").build();
+        }
 
         final Party otherParty = rpcOps.wellKnownPartyFromX500Name(partyName);
         if (otherParty == null) {
             return Response.status(BAD_REQUEST).entity("Party named " + partyName + "cannot be found.\n").build();
         }
 
+        final String requestSpanId = TraceContext.newId();
+        final TraceContext trace = TraceContext.newTrace(requestSpanId);
+        final long traceStart = SpanExporter.nowMicros();
+        // A replayed request reports, and records its span under, the trace of the request it replays.
+        String traceId = trace.getTraceId();
+        boolean replayed = false;
+        try {
+            final CompletableFuture<SignedTransaction> result;
+            if (idempotencyKey == null) {
+                result = startInitiator(iouValue, otherParty, maturityTime, trace);
+            } else {
+                final String requestFingerprint = iouValue + "|" + partyName + "|" + maturityTime;
+                final IdempotencyCache.Lookup<String, SignedTransaction> lookup = createRequests.getOrStart(idempotencyKey, requestFingerprint,
+                        traceId, () -> startInitiator(iouValue, otherParty, maturityTime, trace));
+                result = lookup.getResult();
+                traceId = lookup.getContext();
+                replayed = lookup.isReplayed();
+            }
+            final SignedTransaction signedTx = result.get();
+
+            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
+            return Response.status(CREATED).entity(msg).header("X-Trace-Id", traceId).header("Idempotent-Replayed", replayed).build();
+
+        } catch (IdempotencyCache.KeyReusedException ex) {
+            return Response.status(CONFLICT).entity(ex.getMessage() + "\n").build();
+        } catch (Throwable ex) {
+            final String msg = ex.getMessage();
+            logger.error(ex.getMessage(), ex);
+            return Response.status(BAD_REQUEST).entity(msg).header("X-Trace-Id", traceId).header("Idempotent-Replayed", replayed).build();
+        } finally {
+            SpanExporter.export(new TraceContext(traceId, null), requestSpanId, "api.create-iou",
+                    myLegalName.toString(), traceStart, SpanExporter.nowMicros());
+        }
+    }
+
+    private CompletableFuture<SignedTransaction> startInitiator(int iouValue, Party otherParty, Instant maturityTime, TraceContext trace) {
+        final long flowStart = initiatorMetrics.started();
         try {
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(ExampleFlow.Initiator.class, iouValue, otherParty)
+            return (maturityTime == null
+                    ? rpcOps.startTrackedFlowDynamic(ExampleFlow.Initiator.class, iouValue, otherParty, trace)
+                    : rpcOps.startTrackedFlowDynamic(ExampleFlow.Initiator.class, iouValue, otherParty, maturityTime, trace))
                     .getReturnValue()
-                    .get();
+                    .toCompletableFuture()
+                    .whenComplete((signedTx, error) -> initiatorMetrics.finished(flowStart, error == null));
+        } catch (RuntimeException ex) {
+            initiatorMetrics.finished(flowStart, false);
+            throw ex;
+        }
+    }
+
+    /**
+     * Issues an IOU of the same value to each of several borrowers in a single transaction, collecting the borrowers'
+     * signatures in parallel. Each borrower is named by a repeated 'partyName' query parameter.
+     *
+     * A flow cannot time out waiting for a counterparty, so the wait is bounded here instead. If the flow has not
+     * finished within 'timeoutSeconds' and is still gathering signatures, it is killed and the response is a 504. Once
+     * it has started notarising, killing it could leave a notarised transaction that the borrowers never receive, so
+     * it is left to finish and the response is a 202 with the flow's id. The flow's progress reaches the API after a
+     * short delay, so a flow that has only just moved on is still treated as gathering signatures.
+     */
+    @PUT
+    @Path("create-ious")
+    public Response createIOUs(@QueryParam("iouValue") int iouValue, @QueryParam("partyName") List<CordaX500Name> partyNames,
+                               @QueryParam("maturity") String maturity, @QueryParam("timeoutSeconds") @DefaultValue("60") long timeoutSeconds) {
+        if (iouValue <= 0) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'iouValue' must be non-negative.\n").build();
+        }
+        if (partyNames == null || partyNames.isEmpty() || partyNames.contains(null)) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'partyName' missing or has wrong format.\n").build();
+        }
+        if (timeoutSeconds <= 0) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'timeoutSeconds' must be positive.\n").build();
+        }
+        final Instant maturityTime;
+        try {
+            maturityTime = maturity == null ? null : Instant.parse(maturity);
+        } catch (DateTimeParseException ex) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'maturity' must be an ISO-8601 instant.\n").build();
+        }
+
+        final List<Party> borrowers = new ArrayList<>(partyNames.size());
+        for (CordaX500Name partyName : partyNames) {
+            final Party borrower = rpcOps.wellKnownPartyFromX500Name(partyName);
+            if (borrower == null) {
+                return Response.status(BAD_REQUEST).entity("Party named " + partyName + " cannot be found.\n").build();
+            }
+            borrowers.add(borrower);
+        }
+
+        final long flowStart = multiIssuerMetrics.started();
+        final AtomicReference<String> step = new AtomicReference<>("");
+        FlowProgressHandle<SignedTransaction> handle = null;
+        Subscription progress = null;
+        try {
+            handle = maturityTime == null
+                    ? rpcOps.startTrackedFlowDynamic(ExampleFlow.MultiIssuer.class, iouValue, borrowers)
+                    : rpcOps.startTrackedFlowDynamic(ExampleFlow.MultiIssuer.class, iouValue, borrowers, maturityTime);
+            progress = handle.getProgress().subscribe(step::set, error -> { });
+            final CompletableFuture<SignedTransaction> result = handle.getReturnValue().toCompletableFuture()
+                    .whenComplete((signedTx, error) -> multiIssuerMetrics.finished(flowStart, error == null));
+            final SignedTransaction signedTx = result.get(timeoutSeconds, TimeUnit.SECONDS);
 
             final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
             return Response.status(CREATED).entity(msg).build();
 
+        } catch (TimeoutException ex) {
+            if (ExampleFlow.MultiIssuer.isBeforeFinality(step.get()) && rpcOps.killFlow(handle.getId())) {
+                final String msg = String.format("The borrowers did not all sign within %d seconds, so flow %s was killed.\n", timeoutSeconds, handle.getId());
+                logger.warn(msg.trim());
+                return Response.status(GATEWAY_TIMEOUT).entity(msg).build();
+            }
+            final String msg = String.format("Flow %s had finished gathering signatures when %d seconds passed, so it was left to finish.\n", handle.getId(), timeoutSeconds);
+            logger.warn(msg.trim());
+            return Response.status(ACCEPTED).entity(msg).header("X-Flow-Id", handle.getId().getUuid()).build();
         } catch (Throwable ex) {
+            if (handle == null) {
+                multiIssuerMetrics.finished(flowStart, false);
+            }
             final String msg = ex.getMessage();
             logger.error(ex.getMessage(), ex);
             return Response.status(BAD_REQUEST).entity(msg).build();
+        } finally {
+            if (progress != null) {
+                progress.unsubscribe();
+            }
+        }
+    }
+
+    /**
+     * Destroys the IOU with the given linear ID, which must have been issued by this node.
+     *
+     * The Destroyer reserves the IOU before signing, so a request racing another for the same IOU fails quickly
+     * instead of at the notary. A failure that may pass is not retried here, which would hold the request thread
+     * while backing off. The response carries a 'Retry-After' header instead: a 409 if another flow holds the IOU, or
+     * a 503 if the notary is unavailable. A retried request starts a new flow, which finds nothing to destroy if the
+     * racing flow has since consumed the IOU.
+     */
+    @PUT
+    @Path("destroy-iou")
+    public Response destroyIOU(@QueryParam("linearId") String linearId) throws InterruptedException {
+        final UniqueIdentifier iouId;
+        try {
+            iouId = new UniqueIdentifier(null, UUID.fromString(linearId));
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'linearId' missing or not a UUID.\n").build();
+        }
+
+        final long flowStart = destroyerMetrics.started();
+        boolean succeeded = false;
+        try {
+            final SignedTransaction signedTx = rpcOps.startFlowDynamic(ExampleFlow.Destroyer.class, iouId).getReturnValue().get();
+            succeeded = true;
+            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
+            return Response.status(OK).entity(msg).build();
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof ExampleFlow.IOUReservedException || cause instanceof StatesNotAvailableException) {
+                logger.warn("IOU {} is reserved by another flow: {}", iouId, cause.getMessage());
+                return retryLater(CONFLICT, cause.getMessage());
+            }
+            if (cause instanceof ExampleFlow.NotaryUnavailableException) {
+                logger.warn("Cannot destroy IOU {}: {}", iouId, cause.getMessage());
+                return retryLater(SERVICE_UNAVAILABLE, cause.getMessage());
+            }
+            logger.error(cause.getMessage(), cause);
+            return Response.status(BAD_REQUEST).entity(cause.getMessage()).build();
+        } finally {
+            // Also counts requests whose flow could not be started, for example because the RPC connection is down.
+            destroyerMetrics.finished(flowStart, succeeded);
         }
     }
+
+    /**
+     * A response asking the client to retry after a randomised delay, so that clients that failed together do not
+     * all retry together.
+     */
+    private static Response retryLater(Response.Status status, String message) {
+        final long retryAfterSeconds = DESTROY_RETRY_AFTER_SECONDS + ThreadLocalRandom.current().nextLong(DESTROY_RETRY_AFTER_SECONDS + 1);
+        return Response.status(status).entity(message + "\n").header("Retry-After", retryAfterSeconds).build();
+    }
 	
 	/**
      * Displays all IOU states that are created by Party.
@@ -129,12 +473,87 @@ public class ExampleApi {
     @Path("my-ious")
     @Produces(MediaType.APPLICATION_JSON)
     public Response getMyIOUs() throws NoSuchFieldException {
+        List<StateAndRef<IOUState>> results = vaultQueries.query(myIousQueries, myIOUsCriteria(), IOUState.class).getStates();
+        return Response.status(OK).entity(results).build();
+    }
+
+    private QueryCriteria myIOUsCriteria() throws NoSuchFieldException {
         QueryCriteria generalCriteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL);
         Field lender = IOUSchemaV1.PersistentIOU.class.getDeclaredField("lender");
         CriteriaExpression lenderIndex = Builder.equal(lender, myLegalName.toString());
         QueryCriteria lenderCriteria = new QueryCriteria.VaultCustomQueryCriteria(lenderIndex);
-        QueryCriteria criteria = generalCriteria.and(lenderCriteria);
-        List<StateAndRef<IOUState>> results = rpcOps.vaultQueryByCriteria(criteria,IOUState.class).getStates();
-        return Response.status(OK).entity(results).build();
+        return generalCriteria.and(lenderCriteria);
+    }
+
+    /**
+     * Counts and sums the IOUs issued in each bucket of the half-open interval [from, to), including IOUs that have
+     * since been consumed.
+     */
+    @GET
+    @Path("ious/issued-buckets")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getIssuedBuckets(@QueryParam("from") String from, @QueryParam("to") String to, @QueryParam("bucketSeconds") long bucketSeconds) throws NoSuchFieldException {
+        return timeBuckets("issuedAt", Vault.StateStatus.ALL, from, to, bucketSeconds, issuedBucketsQueries);
+    }
+
+    /**
+     * Counts and sums the outstanding IOUs falling due in each bucket of the half-open interval [from, to).
+     */
+    @GET
+    @Path("ious/maturity-buckets")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMaturityBuckets(@QueryParam("from") String from, @QueryParam("to") String to, @QueryParam("bucketSeconds") long bucketSeconds) throws NoSuchFieldException {
+        return timeBuckets("maturity", Vault.StateStatus.UNCONSUMED, from, to, bucketSeconds, maturityBucketsQueries);
+    }
+
+    /**
+     * Issues one aggregate query per bucket against the indexed timestamp column of [IOUSchemaV2], so each bucket is
+     * answered by an index range scan rather than by loading the matching states.
+     */
+    private Response timeBuckets(String fieldName, Vault.StateStatus status, String from, String to, long bucketSeconds,
+                                 VaultQueryMonitor.Endpoint endpoint) throws NoSuchFieldException {
+        final Instant start;
+        final Instant end;
+        try {
+            start = Instant.parse(from);
+            end = Instant.parse(to);
+        } catch (NullPointerException | DateTimeParseException ex) {
+            return Response.status(BAD_REQUEST).entity("Query parameters 'from' and 'to' must be ISO-8601 instants.\n").build();
+        }
+        if (!end.isAfter(start)) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'to' must be after 'from'.\n").build();
+        }
+        if (bucketSeconds <= 0) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'bucketSeconds' must be positive.\n").build();
+        }
+        final long span = Duration.between(start, end).getSeconds();
+        final long bucketCount = (span + bucketSeconds - 1) / bucketSeconds;
+        if (bucketCount > MAX_BUCKETS) {
+            return Response.status(BAD_REQUEST).entity("At most " + MAX_BUCKETS + " buckets may be requested.\n").build();
+        }
+
+        Field timeField = IOUSchemaV2.PersistentIOU.class.getDeclaredField(fieldName);
+        Field valueField = IOUSchemaV2.PersistentIOU.class.getDeclaredField("value");
+        QueryCriteria aggregates = new QueryCriteria.VaultCustomQueryCriteria(Builder.sum(valueField))
+                .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.count(valueField)));
+        QueryCriteria generalCriteria = new QueryCriteria.VaultQueryCriteria(status);
+
+        List<Map<String, Object>> buckets = new ArrayList<>();
+        for (Instant bucketStart = start; bucketStart.isBefore(end); bucketStart = bucketStart.plusSeconds(bucketSeconds)) {
+            Instant bucketEnd = bucketStart.plusSeconds(bucketSeconds).isAfter(end) ? end : bucketStart.plusSeconds(bucketSeconds);
+            QueryCriteria range = new QueryCriteria.VaultCustomQueryCriteria(Builder.greaterThanOrEqual(timeField, bucketStart))
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.lessThan(timeField, bucketEnd)));
+            List<Object> results = vaultQueries.query(endpoint, generalCriteria.and(range).and(aggregates), IOUState.class).getOtherResults();
+
+            // The aggregate results are returned in the order the criteria were combined: sum, then count.
+            long sum = results.size() > 0 && results.get(0) != null ? ((Number) results.get(0)).longValue() : 0L;
+            long count = results.size() > 1 && results.get(1) != null ? ((Number) results.get(1)).longValue() : 0L;
+            buckets.add(ImmutableMap.of(
+                    "from", bucketStart.toString(),
+                    "to", bucketEnd.toString(),
+                    "count", count,
+                    "sum", sum));
+        }
+        return Response.status(OK).entity(buckets).build();
     }
 }
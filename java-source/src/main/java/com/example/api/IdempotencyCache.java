@@ -0,0 +1,170 @@
+package com.example.api;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Maps client-supplied idempotency keys to the result of the work first started under them.
+ * <p>
+ * The first request with a key starts the work. A later request with the same key gets the same future, which may
+ * still be running or may already have completed, along with the context the first request stored with the key. The
+ * work is never started twice while it runs or after it has succeeded. Each key is bound to a fingerprint of its
+ * request's parameters, so reusing a key for a different request is rejected rather than silently answered with the
+ * wrong result.
+ * <p>
+ * If the work cannot be started, or fails, the key is released so that the client can retry. Requests already waiting
+ * on the failed work still see its failure. Successful results are retained for a bounded time after they complete,
+ * and for a bounded number of keys, with the oldest keys evicted first. Keys whose work is still running are never
+ * evicted, so the bound on keys may be exceeded by as many requests as are in flight.
+ *
+ * @param <C> the context stored with a key by the request that first used it.
+ * @param <V> the result of the work.
+ */
+public class IdempotencyCache<C, V> {
+    /**
+     * Thrown when a key is reused for a request other than the one it was first used for.
+     */
+    public static class KeyReusedException extends IllegalArgumentException {
+        public KeyReusedException(String key) {
+            super("Idempotency key " + key + " was first used for a different request.");
+        }
+    }
+
+    /**
+     * The future for a key, the context stored with it, and whether it belongs to an earlier request.
+     */
+    public static final class Lookup<C, V> {
+        private final CompletableFuture<V> result;
+        private final C context;
+        private final boolean replayed;
+
+        private Lookup(CompletableFuture<V> result, C context, boolean replayed) {
+            this.result = result;
+            this.context = context;
+            this.replayed = replayed;
+        }
+
+        public CompletableFuture<V> getResult() {
+            return result;
+        }
+
+        /**
+         * The context of the request that first used the key, which is this request's own unless it was replayed.
+         */
+        public C getContext() {
+            return context;
+        }
+
+        public boolean isReplayed() {
+            return replayed;
+        }
+    }
+
+    private static final class Entry<C, V> {
+        private final String requestFingerprint;
+        private final C context;
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private volatile long completedNanos;
+
+        private Entry(String requestFingerprint, C context) {
+            this.requestFingerprint = requestFingerprint;
+            this.context = context;
+        }
+    }
+
+    private final int maxEntries;
+    private final long retentionNanos;
+    private final ConcurrentMap<String, Entry<C, V>> entries = new ConcurrentHashMap<>();
+    // Keys in the order they were first used, for eviction.
+    private final Queue<Map.Entry<String, Entry<C, V>>> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param maxEntries       how many keys to retain, not counting those whose work is still running.
+     * @param retentionSeconds how long a key is retained after its work has succeeded.
+     */
+    public IdempotencyCache(int maxEntries, long retentionSeconds) {
+        this.maxEntries = maxEntries;
+        this.retentionNanos = TimeUnit.SECONDS.toNanos(retentionSeconds);
+    }
+
+    /**
+     * Returns the result for the key, starting the work if this is the first request to use it.
+     *
+     * @param context stored with the key if this is the first request to use it, and ignored otherwise.
+     * @throws KeyReusedException if the key was first used with a different request fingerprint.
+     */
+    public Lookup<C, V> getOrStart(String key, String requestFingerprint, C context, Supplier<CompletableFuture<V>> start) {
+        final Entry<C, V> fresh = new Entry<>(requestFingerprint, context);
+        while (true) {
+            final Entry<C, V> existing = entries.putIfAbsent(key, fresh);
+            if (existing == null) {
+                break;
+            }
+            if (!isExpired(existing)) {
+                if (!existing.requestFingerprint.equals(requestFingerprint)) {
+                    throw new KeyReusedException(key);
+                }
+                return new Lookup<>(existing.result, existing.context, true);
+            }
+            entries.remove(key, existing);
+        }
+        insertionOrder.add(new AbstractMap.SimpleImmutableEntry<>(key, fresh));
+        evict();
+
+        try {
+            start.get().whenComplete((value, error) -> {
+                fresh.completedNanos = System.nanoTime();
+                if (error == null) {
+                    fresh.result.complete(value);
+                } else {
+                    // Release the key before failing the waiting requests, so that none of them can retry into it.
+                    entries.remove(key, fresh);
+                    fresh.result.completeExceptionally(error);
+                }
+            });
+        } catch (RuntimeException e) {
+            entries.remove(key, fresh);
+            fresh.result.completeExceptionally(e);
+            throw e;
+        }
+        return new Lookup<>(fresh.result, context, false);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(Entry<C, V> entry) {
+        return entry.result.isDone() && System.nanoTime() - entry.completedNanos > retentionNanos;
+    }
+
+    /**
+     * Drops released keys, and then the oldest completed keys while there are too many or they have expired. Keys
+     * whose work is still running are skipped.
+     */
+    private void evict() {
+        final Iterator<Map.Entry<String, Entry<C, V>>> oldestFirst = insertionOrder.iterator();
+        while (oldestFirst.hasNext()) {
+            final Map.Entry<String, Entry<C, V>> oldest = oldestFirst.next();
+            final Entry<C, V> entry = oldest.getValue();
+            if (entries.get(oldest.getKey()) != entry) {
+                oldestFirst.remove();
+            } else if (!entry.result.isDone()) {
+                continue;
+            } else if (entries.size() > maxEntries || isExpired(entry)) {
+                oldestFirst.remove();
+                entries.remove(oldest.getKey(), entry);
+            } else {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.api;
+
+import com.example.metrics.LatencyHistogram;
+import com.example.metrics.MetricsRegistry;
+import org.glassfish.jersey.server.ExtendedUriInfo;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.uri.UriTemplate;
+
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times how long each response entity takes to serialise and counts the bytes written, per resource.
+ * <p>
+ * Responses are labelled with the path template of the resource method that produced them, such as
+ * '/example/ious/issued-buckets', never with the request's own path, so the number of series is bounded by the
+ * number of resource methods. Responses that no resource method produced, such as 404s, share the 'other' series.
+ * Each resource method's series are looked up once and kept.
+ */
+@Provider
+public class ResponseMetricsInterceptor implements WriterInterceptor {
+    private static final String OTHER = "other";
+
+    private final MetricsRegistry metrics;
+    private final ConcurrentMap<Method, ResourceMetrics> resources = new ConcurrentHashMap<>();
+    private final ResourceMetrics other;
+
+    @Context
+    private ExtendedUriInfo uriInfo;
+
+    private static final class ResourceMetrics {
+        private final LatencyHistogram serialisation;
+        private final LongAdder bytes;
+
+        private ResourceMetrics(MetricsRegistry metrics, String resource) {
+            this.serialisation = metrics.histogram("example_response_serialization_seconds",
+                    "Time spent serialising response entities.", "resource", resource);
+            this.bytes = metrics.counter("example_response_bytes_total",
+                    "Bytes of response entities written.", "resource", resource);
+        }
+    }
+
+    public ResponseMetricsInterceptor(MetricsRegistry metrics) {
+        this.metrics = metrics;
+        this.other = new ResourceMetrics(metrics, OTHER);
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        final ResourceMetrics resource = resourceMetrics();
+        final CountingOutputStream counter = new CountingOutputStream(context.getOutputStream());
+        context.setOutputStream(counter);
+        final long start = System.nanoTime();
+        try {
+            context.proceed();
+        } finally {
+            resource.serialisation.record(System.nanoTime() - start);
+            resource.bytes.add(counter.count);
+        }
+    }
+
+    private ResourceMetrics resourceMetrics() {
+        final ResourceMethod matched = uriInfo.getMatchedResourceMethod();
+        if (matched == null) {
+            return other;
+        }
+        final Method method = matched.getInvocable().getHandlingMethod();
+        final ResourceMetrics known = resources.get(method);
+        return known != null ? known : resources.computeIfAbsent(method, key -> new ResourceMetrics(metrics, template()));
+    }
+
+    /**
+     * The full path template of the matched resource method. Jersey lists the matched templates innermost first.
+     */
+    private String template() {
+        final List<UriTemplate> templates = uriInfo.getMatchedTemplates();
+        final StringBuilder template = new StringBuilder();
+        for (int i = templates.size() - 1; i >= 0; i--) {
+            final String part = templates.get(i).getTemplate();
+            if (!part.isEmpty() && !part.startsWith("/")) {
+                template.append('/');
+            }
+            template.append(part);
+        }
+        return template.length() == 0 ? OTHER : template.toString();
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
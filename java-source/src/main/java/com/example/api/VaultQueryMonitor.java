@@ -0,0 +1,286 @@
+package com.example.api;
+
+import com.example.metrics.LatencyHistogram;
+import com.example.metrics.MetricsRegistry;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the API's vault queries, timing each one per endpoint and per criteria fingerprint.
+ * <p>
+ * A fingerprint is the shape of a [QueryCriteria]: its composition, the columns and operators it filters on, and the
+ * sort. Literal values are left out, so queries that differ only in their parameters share a fingerprint. Queries
+ * slower than the 'example.vault.slowQueryMillis' threshold (500ms by default) are logged with their fingerprint,
+ * page size and result count. The slowest individual queries and the costliest fingerprints are available from
+ * [slowQueries].
+ */
+public class VaultQueryMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(VaultQueryMonitor.class);
+
+    // The number of slowest queries, and of costliest fingerprints, that are reported.
+    private static final int TOP_N = 20;
+
+    /**
+     * An API endpoint whose vault queries are timed together.
+     */
+    public static final class Endpoint {
+        private final String name;
+        private final LatencyHistogram latency;
+
+        private Endpoint(String name, LatencyHistogram latency) {
+            this.name = name;
+            this.latency = latency;
+        }
+    }
+
+    private static final class FingerprintStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder slowCount = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+    }
+
+    private static final class SlowQuery {
+        private final long nanos;
+        private final String endpoint;
+        private final String fingerprint;
+        private final int pageSize;
+        private final int results;
+        private final long totalAvailable;
+        private final long at = System.currentTimeMillis();
+
+        private SlowQuery(long nanos, String endpoint, String fingerprint, int pageSize, int results, long totalAvailable) {
+            this.nanos = nanos;
+            this.endpoint = endpoint;
+            this.fingerprint = fingerprint;
+            this.pageSize = pageSize;
+            this.results = results;
+            this.totalAvailable = totalAvailable;
+        }
+
+        private Map<String, Object> toMap() {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            map.put("millis", nanos / 1e6);
+            map.put("endpoint", endpoint);
+            map.put("fingerprint", fingerprint);
+            map.put("pageSize", pageSize);
+            map.put("results", results);
+            map.put("totalStatesAvailable", totalAvailable);
+            map.put("at", Instant.ofEpochMilli(at).toString());
+            return map;
+        }
+    }
+
+    private final CordaRPCOps rpcOps;
+    private final MetricsRegistry metrics;
+    private final long slowNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("example.vault.slowQueryMillis", 500));
+    private final ConcurrentMap<String, FingerprintStats> fingerprints = new ConcurrentHashMap<>();
+    // The slowest queries seen, fastest first, so the head is the one to evict.
+    private final PriorityQueue<SlowQuery> slowest = new PriorityQueue<>(Comparator.comparingLong(query -> query.nanos));
+    private volatile long slowestFloorNanos;
+
+    public VaultQueryMonitor(CordaRPCOps rpcOps, MetricsRegistry metrics) {
+        this.rpcOps = rpcOps;
+        this.metrics = metrics;
+    }
+
+    public Endpoint endpoint(String name) {
+        return new Endpoint(name, metrics.histogram("example_vault_query_seconds", "Vault query latency seen by each endpoint.", "endpoint", name));
+    }
+
+    public <T extends ContractState> Vault.Page<T> query(Endpoint endpoint, QueryCriteria criteria, Class<T> type) {
+        return query(endpoint, criteria, new PageSpecification(), new Sort(Collections.emptySet()), type);
+    }
+
+    public <T extends ContractState> Vault.Page<T> query(Endpoint endpoint, QueryCriteria criteria, PageSpecification paging, Sort sorting, Class<T> type) {
+        final long start = System.nanoTime();
+        Vault.Page<T> page = null;
+        try {
+            page = rpcOps.vaultQueryBy(criteria, paging, sorting, type);
+            return page;
+        } finally {
+            record(endpoint, criteria, paging, sorting, page, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The slowest individual queries and the fingerprints with the most total query time.
+     */
+    public Map<String, Object> slowQueries() {
+        final List<SlowQuery> queries;
+        synchronized (slowest) {
+            queries = new ArrayList<>(slowest);
+        }
+        queries.sort(Comparator.comparingLong((SlowQuery query) -> query.nanos).reversed());
+        final List<Map<String, Object>> slowestQueries = new ArrayList<>();
+        for (SlowQuery query : queries) {
+            slowestQueries.add(query.toMap());
+        }
+
+        final List<Map.Entry<String, FingerprintStats>> entries = new ArrayList<>(fingerprints.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<String, FingerprintStats> entry) -> entry.getValue().totalNanos.sum()).reversed());
+        final List<Map<String, Object>> costliest = new ArrayList<>();
+        for (Map.Entry<String, FingerprintStats> entry : entries.subList(0, Math.min(TOP_N, entries.size()))) {
+            final FingerprintStats stats = entry.getValue();
+            final long count = stats.count.sum();
+            final Map<String, Object> map = new LinkedHashMap<>();
+            map.put("fingerprint", entry.getKey());
+            map.put("count", count);
+            map.put("slowCount", stats.slowCount.sum());
+            map.put("totalMillis", stats.totalNanos.sum() / 1e6);
+            map.put("meanMillis", count == 0 ? 0 : stats.totalNanos.sum() / 1e6 / count);
+            map.put("maxMillis", stats.maxNanos.get() / 1e6);
+            costliest.add(map);
+        }
+
+        return ImmutableMap.of(
+                "thresholdMillis", TimeUnit.NANOSECONDS.toMillis(slowNanos),
+                "slowest", slowestQueries,
+                "costliestFingerprints", costliest);
+    }
+
+    private void record(Endpoint endpoint, QueryCriteria criteria, PageSpecification paging, Sort sorting, Vault.Page<?> page, long nanos) {
+        endpoint.latency.record(nanos);
+        final String fingerprint = fingerprint(criteria) + sortFingerprint(sorting);
+        final FingerprintStats stats = fingerprints.computeIfAbsent(fingerprint, key -> new FingerprintStats());
+        stats.count.increment();
+        stats.totalNanos.add(nanos);
+        stats.maxNanos.accumulateAndGet(nanos, Math::max);
+
+        final int results = page == null ? -1 : page.getStates().size() + page.getOtherResults().size();
+        final long totalAvailable = page == null ? -1 : page.getTotalStatesAvailable();
+        if (nanos >= slowNanos) {
+            stats.slowCount.increment();
+            logger.warn("Slow vault query on {} took {}ms: {} (page size {}, {} results, {} available{})",
+                    endpoint.name, TimeUnit.NANOSECONDS.toMillis(nanos), fingerprint, paging.getPageSize(), results,
+                    totalAvailable, page == null ? ", failed" : "");
+        }
+        if (nanos > slowestFloorNanos) {
+            synchronized (slowest) {
+                slowest.add(new SlowQuery(nanos, endpoint.name, fingerprint, paging.getPageSize(), results, totalAvailable));
+                if (slowest.size() > TOP_N) {
+                    slowest.poll();
+                }
+                slowestFloorNanos = slowest.size() < TOP_N ? 0 : slowest.peek().nanos;
+            }
+        }
+    }
+
+    /**
+     * The shape of the criteria, with literal values left out.
+     */
+    static String fingerprint(QueryCriteria criteria) {
+        if (criteria instanceof QueryCriteria.AndComposition) {
+            final QueryCriteria.AndComposition and = (QueryCriteria.AndComposition) criteria;
+            return "and(" + fingerprint(and.getA()) + ", " + fingerprint(and.getB()) + ")";
+        }
+        if (criteria instanceof QueryCriteria.OrComposition) {
+            final QueryCriteria.OrComposition or = (QueryCriteria.OrComposition) criteria;
+            return "or(" + fingerprint(or.getA()) + ", " + fingerprint(or.getB()) + ")";
+        }
+        if (criteria instanceof QueryCriteria.VaultQueryCriteria) {
+            final QueryCriteria.VaultQueryCriteria vault = (QueryCriteria.VaultQueryCriteria) criteria;
+            final StringBuilder shape = new StringBuilder("vault(").append(vault.getStatus());
+            if (vault.getContractStateTypes() != null) shape.append(", contractStateTypes");
+            if (vault.getStateRefs() != null) shape.append(", stateRefs");
+            if (vault.getNotary() != null) shape.append(", notary");
+            if (vault.getSoftLockingCondition() != null) shape.append(", softLock=").append(vault.getSoftLockingCondition().getType());
+            if (vault.getTimeCondition() != null) shape.append(", ").append(vault.getTimeCondition().getType()).append(" ")
+                    .append(predicate(vault.getTimeCondition().getPredicate()));
+            return shape.append(")").toString();
+        }
+        if (criteria instanceof QueryCriteria.LinearStateQueryCriteria) {
+            final QueryCriteria.LinearStateQueryCriteria linear = (QueryCriteria.LinearStateQueryCriteria) criteria;
+            final StringBuilder shape = new StringBuilder("linear(").append(linear.getStatus());
+            if (linear.getParticipants() != null) shape.append(", participants");
+            if (linear.getUuid() != null) shape.append(", uuid");
+            if (linear.getExternalId() != null) shape.append(", externalId");
+            return shape.append(")").toString();
+        }
+        if (criteria instanceof QueryCriteria.VaultCustomQueryCriteria) {
+            final QueryCriteria.VaultCustomQueryCriteria<?> custom = (QueryCriteria.VaultCustomQueryCriteria<?>) criteria;
+            return "custom(" + custom.getStatus() + ", " + expression(custom.getExpression()) + ")";
+        }
+        return criteria.getClass().getSimpleName();
+    }
+
+    private static String expression(CriteriaExpression<?, ?> expression) {
+        if (expression instanceof CriteriaExpression.ColumnPredicateExpression) {
+            final CriteriaExpression.ColumnPredicateExpression<?, ?> column = (CriteriaExpression.ColumnPredicateExpression<?, ?>) expression;
+            return column(column.getColumn()) + " " + predicate(column.getPredicate());
+        }
+        if (expression instanceof CriteriaExpression.AggregateFunctionExpression) {
+            final CriteriaExpression.AggregateFunctionExpression<?, ?> aggregate = (CriteriaExpression.AggregateFunctionExpression<?, ?>) expression;
+            final StringBuilder shape = new StringBuilder(predicate(aggregate.getPredicate()))
+                    .append("(").append(column(aggregate.getColumn())).append(")");
+            if (aggregate.getGroupByColumns() != null && !aggregate.getGroupByColumns().isEmpty()) {
+                shape.append(" group by");
+                for (Column<?, ?> groupBy : aggregate.getGroupByColumns()) {
+                    shape.append(" ").append(column(groupBy));
+                }
+            }
+            return shape.toString();
+        }
+        if (expression instanceof CriteriaExpression.BinaryLogical) {
+            final CriteriaExpression.BinaryLogical<?> logical = (CriteriaExpression.BinaryLogical<?>) expression;
+            return "(" + expression(logical.getLeft()) + " " + logical.getOperator() + " " + expression(logical.getRight()) + ")";
+        }
+        if (expression instanceof CriteriaExpression.Not) {
+            return "not(" + expression(((CriteriaExpression.Not<?>) expression).getExpression()) + ")";
+        }
+        return expression.getClass().getSimpleName();
+    }
+
+    private static String column(Column<?, ?> column) {
+        return column.getDeclaringClass().getSimpleName() + "." + column.getName();
+    }
+
+    private static String predicate(ColumnPredicate<?> predicate) {
+        if (predicate instanceof ColumnPredicate.EqualityComparison) {
+            return ((ColumnPredicate.EqualityComparison<?>) predicate).getOperator() + " ?";
+        }
+        if (predicate instanceof ColumnPredicate.BinaryComparison) {
+            return ((ColumnPredicate.BinaryComparison<?>) predicate).getOperator() + " ?";
+        }
+        if (predicate instanceof ColumnPredicate.Likeness) {
+            return ((ColumnPredicate.Likeness) predicate).getOperator() + " ?";
+        }
+        if (predicate instanceof ColumnPredicate.CollectionExpression) {
+            return ((ColumnPredicate.CollectionExpression<?>) predicate).getOperator() + " (?)";
+        }
+        if (predicate instanceof ColumnPredicate.Between) {
+            return "BETWEEN ? AND ?";
+        }
+        if (predicate instanceof ColumnPredicate.NullExpression) {
+            return ((ColumnPredicate.NullExpression<?>) predicate).getOperator().toString();
+        }
+        if (predicate instanceof ColumnPredicate.AggregateFunction) {
+            return ((ColumnPredicate.AggregateFunction<?>) predicate).getType().toString();
+        }
+        return predicate.getClass().getSimpleName();
+    }
+
+    private static String sortFingerprint(Sort sorting) {
+        if (sorting.getColumns().isEmpty()) {
+            return "";
+        }
+        final StringBuilder shape = new StringBuilder(" order by");
+        for (Sort.SortColumn column : sorting.getColumns()) {
+            shape.append(" ").append(column.getSortAttribute()).append(" ").append(column.getDirection());
+        }
+        return shape.toString();
+    }
+}
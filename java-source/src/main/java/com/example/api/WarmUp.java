@@ -0,0 +1,119 @@
+package com.example.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs named steps a few times each on a background thread, so that the first real requests do not pay for class
+ * loading, lazily built caches and cold code.
+ * <p>
+ * Each step is timed on its first and on its last iteration. A step that throws is logged and abandoned, and the
+ * remaining steps still run: warming up is an optimisation, so a failed step does not stop the API from serving.
+ * [isReady] turns true once every step has been run.
+ */
+public class WarmUp {
+    private static final Logger logger = LoggerFactory.getLogger(WarmUp.class);
+
+    /**
+     * A single warm-up step. Its result is discarded.
+     */
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+    private final int iterations;
+    private final Map<String, Object> results = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile boolean ready;
+    private volatile long totalMillis = -1;
+
+    /**
+     * @param iterations how many times each step is run.
+     */
+    public WarmUp(int iterations) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("A warm-up needs at least one iteration.");
+        }
+        this.iterations = iterations;
+    }
+
+    /**
+     * Adds a step. Steps run in the order they were added.
+     */
+    public WarmUp step(String name, Step step) {
+        steps.put(name, step);
+        return this;
+    }
+
+    /**
+     * Starts running the steps on a daemon thread.
+     */
+    public void start() {
+        final Thread thread = new Thread(this::run, "example-api-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Marks the warm-up as done without running any step.
+     */
+    public void skip() {
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Whether the warm-up has finished, how long it took, and the first and last timing of each step so far.
+     */
+    public Map<String, Object> report() {
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("ready", ready);
+        report.put("totalMillis", totalMillis);
+        synchronized (results) {
+            report.put("steps", new LinkedHashMap<>(results));
+        }
+        return report;
+    }
+
+    void run() {
+        final long start = System.nanoTime();
+        for (Map.Entry<String, Step> step : steps.entrySet()) {
+            double firstMillis = -1;
+            double lastMillis = -1;
+            try {
+                for (int i = 0; i < iterations; i++) {
+                    final long stepStart = System.nanoTime();
+                    step.getValue().run();
+                    lastMillis = (System.nanoTime() - stepStart) / 1e6;
+                    if (i == 0) {
+                        firstMillis = lastMillis;
+                    }
+                }
+                results.put(step.getKey(), timings(firstMillis, lastMillis, null));
+            } catch (Exception e) {
+                logger.warn("Warm-up step {} failed: {}", step.getKey(), e.getMessage());
+                results.put(step.getKey(), timings(firstMillis, lastMillis, String.valueOf(e.getMessage())));
+            }
+        }
+        totalMillis = (System.nanoTime() - start) / 1_000_000;
+        ready = true;
+        logger.info("Warm-up finished in {}ms: {}", totalMillis, results);
+    }
+
+    private static Map<String, Object> timings(double firstMillis, double lastMillis, String error) {
+        final Map<String, Object> timings = new LinkedHashMap<>();
+        timings.put("firstMillis", firstMillis);
+        timings.put("lastMillis", lastMillis);
+        if (error != null) {
+            timings.put("error", error);
+        }
+        return timings;
+    }
+}
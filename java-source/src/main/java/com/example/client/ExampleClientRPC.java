@@ -1,49 +1,155 @@
 package com.example.client;
 
 import com.example.state.IOUState;
-import net.corda.client.rpc.CordaRPCClient;
-import net.corda.client.rpc.CordaRPCClientConfiguration;
 import net.corda.core.contracts.StateAndRef;
-import net.corda.core.messaging.CordaRPCOps;
-import net.corda.core.messaging.DataFeed;
-import net.corda.core.node.services.Vault;
 import net.corda.core.utilities.NetworkHostAndPort;
-import org.apache.activemq.artemis.api.core.ActiveMQException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import rx.Observable;
 
-import java.util.concurrent.ExecutionException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Demonstration of using the CordaRPCClient to connect to a Corda Node and
  * steam some State data from the node.
+ * <p>
+ * The stream reconnects automatically if the node restarts. If a checkpoint file is given, the client also resumes
+ * from where it left off after being restarted itself, rather than downloading the whole vault again.
+ * <p>
+ * Updates are handed off the RPC thread to an [UpdateBatcher], which can be tuned with the system properties
+ * 'example.batch.buffer', 'example.batch.maxSize', 'example.batch.maxDelayMillis' and 'example.batch.workers'. The
+ * checkpoint is committed as batches are logged; with more than one worker, a batch may commit it while an earlier
+ * batch is still being logged.
+ * <p>
+ * If 'example.replica.jdbcUrl' is set, the IOUs are mirrored into an [IOUReplica] at that URL instead of being
+ * logged. Setting 'example.replica.replay' to true clears the replica and the checkpoint first, so the replica is
+ * rebuilt from scratch.
  */
 public class ExampleClientRPC {
     private static final Logger logger = LoggerFactory.getLogger(ExampleClientRPC.class);
 
-    private static void logState(StateAndRef<IOUState> state) {
-        logger.info("{}", state.getState().getData());
+    private static final int PAGE_SIZE = 200;
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long METRICS_INTERVAL_SECONDS = 30;
+
+    private static void logBatch(List<IOUReplica.Change> batch) throws IOException {
+        for (IOUReplica.Change change : batch) {
+            logger.info("{}", change.getState().getState().getData());
+        }
+        commit(batch);
+    }
+
+    /**
+     * Commits the feed checkpoint of the last change in a batch that has been processed, so that a restarted client
+     * resumes after it rather than after whatever the feed has handed to the batcher.
+     */
+    private static void commit(List<IOUReplica.Change> batch) throws IOException {
+        final ResumableVaultFeed.Checkpoint checkpoint = batch.get(batch.size() - 1).getCheckpoint();
+        if (checkpoint != null) {
+            checkpoint.commit();
+        }
+    }
+
+    private static <T> void submit(UpdateBatcher<T> batcher, T item) {
+        try {
+            batcher.submit(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while handing off a vault update.", e);
+        }
     }
 
-    public static void main(String[] args) throws ActiveMQException, InterruptedException, ExecutionException {
-        if (args.length != 1) {
-            throw new IllegalArgumentException("Usage: ExampleClientRPC <node address>");
+    public static void main(String[] args) throws InterruptedException, IOException, SQLException {
+        if (args.length < 1 || args.length > 2) {
+            throw new IllegalArgumentException("Usage: ExampleClientRPC <node address> [checkpoint file]");
         }
 
         final NetworkHostAndPort nodeAddress = NetworkHostAndPort.parse(args[0]);
-        final CordaRPCClient client = new CordaRPCClient(nodeAddress, CordaRPCClientConfiguration.DEFAULT);
+        final Path checkpointFile = args.length == 2 ? Paths.get(args[1]) : null;
 
-        // Can be amended in the com.example.Main file.
-        final CordaRPCOps proxy = client.start("user1", "test").getProxy();
+        final String replicaUrl = System.getProperty("example.replica.jdbcUrl");
+        if (replicaUrl != null) {
+            replicate(nodeAddress, checkpointFile, replicaUrl, Boolean.getBoolean("example.replica.replay"));
+            return;
+        }
+
+        final UpdateBatcher<IOUReplica.Change> batcher = new UpdateBatcher<>(
+                ExampleClientRPC::logBatch,
+                Integer.getInteger("example.batch.buffer", 10_000),
+                Integer.getInteger("example.batch.maxSize", 500),
+                Long.getLong("example.batch.maxDelayMillis", 200L),
+                Integer.getInteger("example.batch.workers", 2));
+        final ScheduledExecutorService metricsLogger = Executors.newSingleThreadScheduledExecutor();
+        metricsLogger.scheduleAtFixedRate(() -> logger.info("Update batcher: {}", batcher.metrics()),
+                METRICS_INTERVAL_SECONDS, METRICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
-        // Grab all existing and future IOU states in the vault.
-        final DataFeed<Vault.Page<IOUState>, Vault.Update<IOUState>> dataFeed = proxy.vaultTrack(IOUState.class);
-        final Vault.Page<IOUState> snapshot = dataFeed.getSnapshot();
-        final Observable<Vault.Update<IOUState>> updates = dataFeed.getUpdates();
+        // Log the 'placed' IOUs and listen for new ones. The credentials can be amended in the deployNodes task.
+        final ResumableVaultFeed feed = new ResumableVaultFeed(nodeAddress, "user1", "test", checkpointFile,
+                (state, checkpoint) -> submit(batcher, new IOUReplica.Change(state, false, checkpoint)),
+                PAGE_SIZE, INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+        try {
+            feed.run();
+        } finally {
+            metricsLogger.shutdownNow();
+            batcher.close();
+        }
+    }
 
-        // Log the 'placed' IOUs and listen for new ones.
-        snapshot.getStates().forEach(ExampleClientRPC::logState);
-        updates.toBlocking().subscribe(update -> update.getProduced().forEach(ExampleClientRPC::logState));
+    /**
+     * Mirrors the vault into a local replica. The replica is written by a single worker so that batches are applied in
+     * the order they were received, and the feed's checkpoint is committed only once the replica has committed the
+     * changes before it. A batch the replica fails on is retried before any later batch is applied.
+     */
+    private static void replicate(NetworkHostAndPort nodeAddress, Path checkpointFile, String replicaUrl, boolean replay)
+            throws InterruptedException, IOException, SQLException {
+        try (IOUReplica replica = new IOUReplica(replicaUrl)) {
+            if (replay) {
+                replica.reset();
+                if (checkpointFile != null) {
+                    Files.deleteIfExists(checkpointFile);
+                }
+            }
+            final UpdateBatcher<IOUReplica.Change> batcher = new UpdateBatcher<>(
+                    batch -> {
+                        replica.accept(batch);
+                        commit(batch);
+                    },
+                    Integer.getInteger("example.batch.buffer", 10_000),
+                    Integer.getInteger("example.batch.maxSize", 500),
+                    Long.getLong("example.batch.maxDelayMillis", 200L),
+                    1);
+            final ScheduledExecutorService metricsLogger = Executors.newSingleThreadScheduledExecutor();
+            metricsLogger.scheduleAtFixedRate(() -> logger.info("Replica: {}, update batcher: {}", replica.metrics(), batcher.metrics()),
+                    METRICS_INTERVAL_SECONDS, METRICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+            final ResumableVaultFeed feed = new ResumableVaultFeed(nodeAddress, "user1", "test", checkpointFile,
+                    new ResumableVaultFeed.Listener() {
+                        @Override
+                        public void produced(StateAndRef<IOUState> state, ResumableVaultFeed.Checkpoint checkpoint) {
+                            replica.received();
+                            submit(batcher, new IOUReplica.Change(state, false, checkpoint));
+                        }
+
+                        @Override
+                        public void consumed(StateAndRef<IOUState> state, ResumableVaultFeed.Checkpoint checkpoint) {
+                            replica.received();
+                            submit(batcher, new IOUReplica.Change(state, true, checkpoint));
+                        }
+                    }, PAGE_SIZE, INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+            try {
+                feed.run();
+            } finally {
+                metricsLogger.shutdownNow();
+                batcher.close();
+            }
+        }
     }
 }
@@ -0,0 +1,254 @@
+package com.example.client;
+
+import com.example.state.IOUState;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.contracts.StateAndRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local, indexed copy of the IOU vault kept in an embedded JDBC store (H2 by default), so that analytical reads can
+ * be served without touching the node's database.
+ * <p>
+ * Changes are applied as idempotent upserts keyed on the [StateRef]. Replaying a change, or applying a consumption
+ * before the matching production, leaves the replica in the same state. A consumed state is kept with its consumed
+ * flag set, so reports can cover both live and historic IOUs.
+ */
+public class IOUReplica implements UpdateBatcher.Sink<IOUReplica.Change>, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(IOUReplica.class);
+
+    /**
+     * A produced or consumed state, stamped with the time the client received it so that replication lag can be
+     * measured, and carrying the feed checkpoint to commit once it has been applied.
+     */
+    public static class Change {
+        private final StateAndRef<IOUState> state;
+        private final boolean consumed;
+        private final ResumableVaultFeed.Checkpoint checkpoint;
+        private final long receivedNanos;
+
+        public Change(StateAndRef<IOUState> state, boolean consumed, ResumableVaultFeed.Checkpoint checkpoint) {
+            this.state = state;
+            this.consumed = consumed;
+            this.checkpoint = checkpoint;
+            this.receivedNanos = System.nanoTime();
+        }
+
+        public Change(StateAndRef<IOUState> state, boolean consumed) {
+            this(state, consumed, null);
+        }
+
+        public StateAndRef<IOUState> getState() {
+            return state;
+        }
+
+        public boolean isConsumed() {
+            return consumed;
+        }
+
+        /**
+         * The feed checkpoint to commit once this change has been applied, or null if it is not replicated from a feed.
+         */
+        public ResumableVaultFeed.Checkpoint getCheckpoint() {
+            return checkpoint;
+        }
+    }
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS iou_replica (" +
+            "tx_hash VARCHAR(64) NOT NULL, " +
+            "output_index INT NOT NULL, " +
+            "lender VARCHAR(255) NOT NULL, " +
+            "borrower VARCHAR(255) NOT NULL, " +
+            "value INT NOT NULL, " +
+            "issued_at TIMESTAMP, " +
+            "maturity TIMESTAMP, " +
+            "linear_id UUID NOT NULL, " +
+            "consumed BOOLEAN DEFAULT FALSE NOT NULL, " +
+            "PRIMARY KEY (tx_hash, output_index))";
+    private static final String[] CREATE_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS iou_replica_lender_idx ON iou_replica (lender, consumed)",
+            "CREATE INDEX IF NOT EXISTS iou_replica_borrower_idx ON iou_replica (borrower, consumed)",
+            "CREATE INDEX IF NOT EXISTS iou_replica_linear_id_idx ON iou_replica (linear_id)",
+            "CREATE INDEX IF NOT EXISTS iou_replica_issued_at_idx ON iou_replica (issued_at)",
+            "CREATE INDEX IF NOT EXISTS iou_replica_maturity_idx ON iou_replica (maturity)"
+    };
+    // The consumed column is omitted so that a late production never clears an earlier consumption.
+    private static final String UPSERT_PRODUCED = "MERGE INTO iou_replica " +
+            "(tx_hash, output_index, lender, borrower, value, issued_at, maturity, linear_id) KEY (tx_hash, output_index) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPSERT_CONSUMED = "MERGE INTO iou_replica " +
+            "(tx_hash, output_index, lender, borrower, value, issued_at, maturity, linear_id, consumed) KEY (tx_hash, output_index) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, TRUE)";
+    private static final String SELECT_COLUMNS = "SELECT tx_hash, output_index, lender, borrower, value, issued_at, maturity, linear_id, consumed FROM iou_replica ";
+
+    private final String jdbcUrl;
+    private final Connection writer;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final AtomicLong lastLagNanos = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private volatile Instant lastAppliedAt;
+
+    /**
+     * @param jdbcUrl for example 'jdbc:h2:file:./build/iou-replica'. Add ';AUTO_SERVER=TRUE' to let other processes
+     *                query the replica while it is being written.
+     */
+    public IOUReplica(String jdbcUrl) throws SQLException {
+        this.jdbcUrl = jdbcUrl;
+        this.writer = DriverManager.getConnection(jdbcUrl);
+        this.writer.setAutoCommit(false);
+        createSchema();
+    }
+
+    /**
+     * Drops everything replicated so far, ready for a replay from scratch.
+     */
+    public synchronized void reset() throws SQLException {
+        try (Statement statement = writer.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS iou_replica");
+        }
+        writer.commit();
+        createSchema();
+        logger.info("Replica at {} reset", jdbcUrl);
+    }
+
+    /**
+     * Counts a change as received; call this when the change is handed to the pipeline in front of the replica.
+     */
+    public void received() {
+        received.increment();
+    }
+
+    /**
+     * Applies a batch of changes in one database transaction.
+     */
+    @Override
+    public synchronized void accept(List<Change> batch) throws SQLException {
+        try (PreparedStatement produced = writer.prepareStatement(UPSERT_PRODUCED);
+             PreparedStatement consumed = writer.prepareStatement(UPSERT_CONSUMED)) {
+            for (Change change : batch) {
+                bind(change.isConsumed() ? consumed : produced, change.getState()).addBatch();
+            }
+            produced.executeBatch();
+            consumed.executeBatch();
+            writer.commit();
+        } catch (SQLException e) {
+            writer.rollback();
+            throw e;
+        }
+        final long now = System.nanoTime();
+        for (Change change : batch) {
+            final long lag = now - change.receivedNanos;
+            lastLagNanos.set(lag);
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+        }
+        applied.add(batch.size());
+        lastAppliedAt = Instant.now();
+    }
+
+    /**
+     * The unconsumed IOUs lent by the given party, served from the lender index.
+     */
+    public List<Map<String, Object>> unconsumedByLender(String lender) throws SQLException {
+        return query(SELECT_COLUMNS + "WHERE lender = ? AND consumed = FALSE", lender);
+    }
+
+    /**
+     * The unconsumed IOUs owed by the given party, served from the borrower index.
+     */
+    public List<Map<String, Object>> unconsumedByBorrower(String borrower) throws SQLException {
+        return query(SELECT_COLUMNS + "WHERE borrower = ? AND consumed = FALSE", borrower);
+    }
+
+    /**
+     * Every version of the IOU with the given linearId, live or consumed.
+     */
+    public List<Map<String, Object>> byLinearId(java.util.UUID linearId) throws SQLException {
+        return query(SELECT_COLUMNS + "WHERE linear_id = ?", linearId);
+    }
+
+    /**
+     * The IOUs issued in [from, to), served from the issuance index.
+     */
+    public List<Map<String, Object>> issuedBetween(Instant from, Instant to) throws SQLException {
+        return query(SELECT_COLUMNS + "WHERE issued_at >= ? AND issued_at < ?", Timestamp.from(from), Timestamp.from(to));
+    }
+
+    /**
+     * Replication progress: the changes received and applied, the backlog between them, and the time changes spent
+     * between being received and being committed to the replica.
+     */
+    public Map<String, Object> metrics() {
+        final long receivedCount = received.sum();
+        final long appliedCount = applied.sum();
+        return ImmutableMap.<String, Object>builder()
+                .put("received", receivedCount)
+                .put("applied", appliedCount)
+                .put("backlog", receivedCount - appliedCount)
+                .put("lastLagMillis", TimeUnit.NANOSECONDS.toMillis(lastLagNanos.get()))
+                .put("maxLagMillis", TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get()))
+                .put("lastAppliedAt", lastAppliedAt == null ? "never" : lastAppliedAt.toString())
+                .build();
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+        writer.close();
+    }
+
+    private void createSchema() throws SQLException {
+        try (Statement statement = writer.createStatement()) {
+            statement.execute(CREATE_TABLE);
+            for (String index : CREATE_INDEXES) {
+                statement.execute(index);
+            }
+        }
+        writer.commit();
+    }
+
+    private static PreparedStatement bind(PreparedStatement statement, StateAndRef<IOUState> stateAndRef) throws SQLException {
+        final IOUState iou = stateAndRef.getState().getData();
+        statement.setString(1, stateAndRef.getRef().getTxhash().toString());
+        statement.setInt(2, stateAndRef.getRef().getIndex());
+        statement.setString(3, iou.getLender().getName().toString());
+        statement.setString(4, iou.getBorrower().getName().toString());
+        statement.setInt(5, iou.getValue());
+        statement.setTimestamp(6, iou.getIssuedAt() == null ? null : Timestamp.from(iou.getIssuedAt()));
+        statement.setTimestamp(7, iou.getMaturity() == null ? null : Timestamp.from(iou.getMaturity()));
+        statement.setObject(8, iou.getLinearId().getId());
+        return statement;
+    }
+
+    // Reads use their own connection so that they never wait behind a batch being written.
+    private List<Map<String, Object>> query(String sql, Object... parameters) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(jdbcUrl);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet results = statement.executeQuery()) {
+                final ResultSetMetaData metaData = results.getMetaData();
+                final List<Map<String, Object>> rows = new ArrayList<>();
+                while (results.next()) {
+                    final Map<String, Object> row = new LinkedHashMap<>();
+                    for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                        row.put(metaData.getColumnLabel(column).toLowerCase(), results.getObject(column));
+                    }
+                    rows.add(row);
+                }
+                return rows;
+            }
+        }
+    }
+}
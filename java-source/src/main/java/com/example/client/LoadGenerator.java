@@ -0,0 +1,261 @@
+package com.example.client;
+
+import com.example.flow.ExampleFlow;
+import com.example.metrics.LatencyHistogram;
+import com.example.state.IOUState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives [ExampleFlow.Initiator] and [ExampleFlow.Destroyer] against a node of the deployNodes network and reports
+ * throughput and latency percentiles.
+ * <p>
+ * Two modes are supported. In closed-loop mode ('rate=0') a fixed number of workers each run one flow at a time. In
+ * open-loop mode flows are started at a fixed rate, with at most 'concurrency' in flight. Open-loop latency is measured
+ * from when each flow was due to start rather than when it actually started. Otherwise a stalled node would hide its
+ * own queueing delay from the results.
+ * <p>
+ * Options are given as key=value arguments after the node address:
+ * <pre>
+ *   rate=50              flows started per second; 0 for closed-loop
+ *   concurrency=16       workers (closed-loop) or maximum flows in flight (open-loop)
+ *   duration=60          seconds to run for
+ *   destroyRatio=0.3     fraction of flows that destroy an IOU created earlier in the run
+ *   value=10             value of each IOU created
+ *   counterparties=...   semicolon-separated 'X500 name|weight' pairs; defaults to every peer with weight 1
+ *   pool=4               RPC connections used to start the flows
+ *   results=build/load-results.json
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final class Stats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        private Map<String, Object> report(double seconds) {
+            return ImmutableMap.<String, Object>builder()
+                    .put("completed", latency.count())
+                    .put("errors", errors.sum())
+                    .put("throughputPerSecond", latency.count() / seconds)
+                    .put("p50Millis", latency.percentileMillis(0.50))
+                    .put("p99Millis", latency.percentileMillis(0.99))
+                    .put("p999Millis", latency.percentileMillis(0.999))
+                    .put("maxMillis", latency.maxNanos() / 1e6)
+                    .build();
+        }
+    }
+
+    private final RPCConnectionPool pool;
+    private final List<Party> counterparties = new ArrayList<>();
+    private final double[] cumulativeWeights;
+    private final double destroyRatio;
+    private final int iouValue;
+    private final Queue<UniqueIdentifier> destroyable = new ConcurrentLinkedQueue<>();
+    private final Stats creates = new Stats();
+    private final Stats destroys = new Stats();
+
+    private LoadGenerator(RPCConnectionPool pool, Map<Party, Double> weights, double destroyRatio, int iouValue) {
+        this.pool = pool;
+        this.destroyRatio = destroyRatio;
+        this.iouValue = iouValue;
+        this.cumulativeWeights = new double[weights.size()];
+        double total = 0;
+        for (Map.Entry<Party, Double> entry : weights.entrySet()) {
+            total += entry.getValue();
+            cumulativeWeights[counterparties.size()] = total;
+            counterparties.add(entry.getKey());
+        }
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            cumulativeWeights[i] /= total;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: LoadGenerator <node address> [key=value options]");
+        }
+        final NetworkHostAndPort nodeAddress = NetworkHostAndPort.parse(args[0]);
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            final String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Options must be given as key=value: " + args[i]);
+            }
+            options.put(option[0], option[1]);
+        }
+        final double rate = Double.parseDouble(options.getOrDefault("rate", "50"));
+        final int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        final long durationSeconds = Long.parseLong(options.getOrDefault("duration", "60"));
+        final File resultsFile = new File(options.getOrDefault("results", "build/load-results.json"));
+
+        try (RPCConnectionPool pool = new RPCConnectionPool(nodeAddress, "user1", "test",
+                Integer.parseInt(options.getOrDefault("pool", "4")), RPCConnectionPool.Strategy.LEAST_LOADED, 5_000)) {
+            final LoadGenerator generator = new LoadGenerator(
+                    pool,
+                    counterpartyWeights(pool.proxy(), options.get("counterparties")),
+                    Double.parseDouble(options.getOrDefault("destroyRatio", "0.3")),
+                    Integer.parseInt(options.getOrDefault("value", "10")));
+
+            final Instant started = Instant.now();
+            final long startNanos = System.nanoTime();
+            if (rate <= 0) {
+                generator.runClosedLoop(concurrency, durationSeconds);
+            } else {
+                generator.runOpenLoop(rate, concurrency, durationSeconds);
+            }
+            final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+            final Map<String, Object> results = ImmutableMap.<String, Object>builder()
+                    .put("node", nodeAddress.toString())
+                    .put("started", started.toString())
+                    .put("elapsedSeconds", elapsedSeconds)
+                    .put("mode", rate <= 0 ? "closed-loop" : "open-loop")
+                    .put("targetRate", rate)
+                    .put("concurrency", concurrency)
+                    .put("create", generator.creates.report(elapsedSeconds))
+                    .put("destroy", generator.destroys.report(elapsedSeconds))
+                    .build();
+            generator.writeResults(results, resultsFile);
+        }
+    }
+
+    private void runClosedLoop(int workers, long durationSeconds) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    try {
+                        runOne(System.nanoTime()).get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (ExecutionException e) {
+                        // Already counted by runOne.
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(durationSeconds + 300, TimeUnit.SECONDS);
+    }
+
+    private void runOpenLoop(double rate, int maxInFlight, long durationSeconds) throws InterruptedException {
+        final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        for (long due = start; due < deadline; due += intervalNanos) {
+            final long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            // Waiting for a permit delays later starts, and that delay shows up in their latency.
+            inFlight.acquire();
+            runOne(due).whenComplete((result, error) -> inFlight.release());
+        }
+        // Wait for the stragglers.
+        inFlight.acquire(maxInFlight);
+    }
+
+    /**
+     * Starts one flow and records its latency from the given intended start time once it completes.
+     */
+    private CompletableFuture<SignedTransaction> runOne(long intendedStartNanos) {
+        final UniqueIdentifier toDestroy = ThreadLocalRandom.current().nextDouble() < destroyRatio ? destroyable.poll() : null;
+        final Stats stats = toDestroy == null ? creates : destroys;
+        final CompletableFuture<SignedTransaction> result;
+        try {
+            result = toDestroy == null
+                    ? pool.call(ops -> ops.startFlowDynamic(ExampleFlow.Initiator.class, iouValue, pickCounterparty())).getReturnValue().toCompletableFuture()
+                    : pool.call(ops -> ops.startFlowDynamic(ExampleFlow.Destroyer.class, toDestroy)).getReturnValue().toCompletableFuture();
+        } catch (RuntimeException e) {
+            stats.errors.increment();
+            final CompletableFuture<SignedTransaction> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return result.whenComplete((stx, error) -> {
+            if (error != null) {
+                stats.errors.increment();
+                logger.debug("Flow failed", error);
+                return;
+            }
+            stats.latency.record(System.nanoTime() - intendedStartNanos);
+            if (toDestroy == null) {
+                destroyable.add(stx.getTx().outputsOfType(IOUState.class).get(0).getLinearId());
+            }
+        });
+    }
+
+    private Party pickCounterparty() {
+        final double draw = ThreadLocalRandom.current().nextDouble();
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (draw < cumulativeWeights[i]) {
+                return counterparties.get(i);
+            }
+        }
+        return counterparties.get(counterparties.size() - 1);
+    }
+
+    private void writeResults(Map<String, Object> results, File resultsFile) throws IOException {
+        final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        final String json = mapper.writeValueAsString(results);
+        System.out.println(json);
+        final File directory = resultsFile.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        mapper.writeValue(resultsFile, results);
+        logger.info("Load test results written to {}", resultsFile.getAbsolutePath());
+    }
+
+    /**
+     * Parses 'name|weight;name|weight', or weights every peer other than ourselves and the notaries equally.
+     */
+    private static Map<Party, Double> counterpartyWeights(CordaRPCOps ops, String spec) {
+        final Map<Party, Double> weights = new LinkedHashMap<>();
+        if (spec != null) {
+            for (String entry : spec.split(";")) {
+                final String[] parts = entry.split("\\|");
+                final Party party = ops.wellKnownPartyFromX500Name(CordaX500Name.parse(parts[0].trim()));
+                if (party == null) {
+                    throw new IllegalArgumentException("Unknown counterparty " + parts[0]);
+                }
+                weights.put(party, parts.length > 1 ? Double.parseDouble(parts[1].trim()) : 1.0);
+            }
+        } else {
+            final Party me = ops.nodeInfo().getLegalIdentities().get(0);
+            final List<Party> notaries = ops.notaryIdentities();
+            for (NodeInfo node : ops.networkMapSnapshot()) {
+                final Party party = node.getLegalIdentities().get(0);
+                if (!party.equals(me) && !notaries.contains(party)) {
+                    weights.put(party, 1.0);
+                }
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalStateException("No counterparties to send IOUs to.");
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.client;
+
+import com.google.common.collect.ImmutableMap;
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCClientConfiguration;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.client.rpc.RPCException;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A fixed-size pool of RPC connections to one node, so that concurrent callers are not serialised on a single Artemis
+ * session.
+ * <p>
+ * Each call is dispatched to a healthy connection, chosen round-robin or by fewest calls in flight. A connection
+ * whose call fails with an [RPCException] is marked unhealthy and skipped. A background health check pings every
+ * connection and re-opens the unhealthy ones.
+ */
+public class RPCConnectionPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(RPCConnectionPool.class);
+
+    public enum Strategy { ROUND_ROBIN, LEAST_LOADED }
+
+    private static final class Slot {
+        private final int index;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private volatile CordaRPCConnection connection;
+        private volatile boolean healthy;
+
+        private Slot(int index) {
+            this.index = index;
+        }
+    }
+
+    private final NetworkHostAndPort nodeAddress;
+    private final String username;
+    private final String password;
+    private final Strategy strategy;
+    private final Slot[] slots;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker;
+
+    /**
+     * Opens [size] connections. Connections that cannot be opened yet are retried by the health check.
+     */
+    public RPCConnectionPool(NetworkHostAndPort nodeAddress, String username, String password, int size,
+                             Strategy strategy, long healthCheckIntervalMillis) {
+        if (size < 1) {
+            throw new IllegalArgumentException("An RPC connection pool needs at least one connection.");
+        }
+        this.nodeAddress = nodeAddress;
+        this.username = username;
+        this.password = password;
+        this.strategy = strategy;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+            connect(slots[i]);
+        }
+        this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "rpc-pool-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.healthChecker.scheduleWithFixedDelay(this::checkHealth, healthCheckIntervalMillis, healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a single RPC call on a pooled connection. A connection found closed by a concurrent reconnect is marked
+     * unhealthy and the call is dispatched to another one.
+     */
+    public <T> T call(Function<CordaRPCOps, T> call) {
+        for (int attempt = 0; attempt < slots.length; attempt++) {
+            final Slot slot = select();
+            slot.inFlight.incrementAndGet();
+            try {
+                final CordaRPCConnection connection = slot.connection;
+                if (connection == null) {
+                    slot.healthy = false;
+                    continue;
+                }
+                slot.calls.increment();
+                return call.apply(connection.getProxy());
+            } catch (RPCException e) {
+                slot.failures.increment();
+                slot.healthy = false;
+                throw e;
+            } finally {
+                slot.inFlight.decrementAndGet();
+            }
+        }
+        throw new RPCException("No healthy RPC connection to " + nodeAddress + " is available.");
+    }
+
+    /**
+     * A [CordaRPCOps] that dispatches each method call to a pooled connection, for code written against a single
+     * proxy. Observables returned by a call stay bound to the connection that served it.
+     */
+    public CordaRPCOps proxy() {
+        return (CordaRPCOps) Proxy.newProxyInstance(CordaRPCOps.class.getClassLoader(), new Class<?>[]{CordaRPCOps.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return invokeObjectMethod(proxy, method, args);
+                    }
+                    return call(ops -> {
+                        try {
+                            return method.invoke(ops, args);
+                        } catch (InvocationTargetException e) {
+                            throw propagate(e.getCause());
+                        } catch (IllegalAccessException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                });
+    }
+
+    /**
+     * Per-connection health, load and error counts.
+     */
+    public List<Map<String, Object>> metrics() {
+        final List<Map<String, Object>> metrics = new ArrayList<>(slots.length);
+        for (Slot slot : slots) {
+            metrics.add(ImmutableMap.of(
+                    "connection", slot.index,
+                    "healthy", slot.healthy,
+                    "inFlight", slot.inFlight.get(),
+                    "calls", slot.calls.sum(),
+                    "failures", slot.failures.sum()));
+        }
+        return metrics;
+    }
+
+    public int size() {
+        return slots.length;
+    }
+
+    @Override
+    public void close() {
+        healthChecker.shutdownNow();
+        for (Slot slot : slots) {
+            slot.healthy = false;
+            closeQuietly(slot.connection);
+        }
+    }
+
+    private Slot select() {
+        final int start = next.getAndIncrement();
+        Slot chosen = null;
+        for (int i = 0; i < slots.length; i++) {
+            final Slot slot = slots[Math.floorMod(start + i, slots.length)];
+            if (!slot.healthy) {
+                continue;
+            }
+            if (strategy == Strategy.ROUND_ROBIN) {
+                return slot;
+            }
+            if (chosen == null || slot.inFlight.get() < chosen.inFlight.get()) {
+                chosen = slot;
+            }
+        }
+        if (chosen == null) {
+            throw new RPCException("No healthy RPC connection to " + nodeAddress + " is available.");
+        }
+        return chosen;
+    }
+
+    private void checkHealth() {
+        for (Slot slot : slots) {
+            final CordaRPCConnection connection = slot.connection;
+            if (slot.healthy && connection != null) {
+                try {
+                    connection.getProxy().currentNodeTime();
+                    continue;
+                } catch (RuntimeException e) {
+                    logger.warn("RPC connection {} to {} failed its health check: {}", slot.index, nodeAddress, e.getMessage());
+                    slot.healthy = false;
+                }
+            }
+            // Only re-open once the calls still running on the old connection have finished with it.
+            if (slot.inFlight.get() == 0) {
+                closeQuietly(connection);
+                connect(slot);
+            }
+        }
+    }
+
+    private void connect(Slot slot) {
+        try {
+            slot.connection = new CordaRPCClient(nodeAddress, CordaRPCClientConfiguration.DEFAULT).start(username, password);
+            slot.healthy = true;
+        } catch (Exception e) {
+            logger.warn("Cannot open RPC connection {} to {}: {}", slot.index, nodeAddress, e.getMessage());
+            // Mark the slot unhealthy first, so that callers stop choosing it before its connection goes.
+            slot.healthy = false;
+            slot.connection = null;
+        }
+    }
+
+    private static void closeQuietly(CordaRPCConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (RuntimeException e) {
+            logger.debug("Ignoring error closing RPC connection: {}", e.getMessage());
+        }
+    }
+
+    private static RuntimeException propagate(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "RPCConnectionPool(" + nodeAddress + ", " + slots.length + " connections)";
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.client;
+
+import com.example.state.IOUState;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures RPC throughput against a running node for a range of [RPCConnectionPool] sizes, with a fixed number of
+ * calling threads. Each call is a one-state vault query, so the figures reflect round trips rather than result size.
+ */
+public class RPCPoolBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(RPCPoolBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: RPCPoolBenchmark <node address> [pool sizes, e.g. 1,2,4,8] [threads] [seconds per size]");
+        }
+        final NetworkHostAndPort nodeAddress = NetworkHostAndPort.parse(args[0]);
+        final String[] sizes = (args.length > 1 ? args[1] : "1,2,4,8").split(",");
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        final long seconds = args.length > 3 ? Long.parseLong(args[3]) : 20;
+
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria();
+        final PageSpecification onePage = new PageSpecification(1, 1);
+        final List<String> results = new ArrayList<>();
+        for (String size : sizes) {
+            try (RPCConnectionPool pool = new RPCConnectionPool(nodeAddress, "user1", "test", Integer.parseInt(size.trim()),
+                    RPCConnectionPool.Strategy.LEAST_LOADED, 5_000)) {
+                final LongAdder calls = new LongAdder();
+                final LongAdder errors = new LongAdder();
+                final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+                final ExecutorService callers = Executors.newFixedThreadPool(threads);
+                final List<Future<?>> running = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    running.add(callers.submit(() -> {
+                        while (System.nanoTime() < deadline) {
+                            try {
+                                pool.call(ops -> ops.vaultQueryByWithPagingSpec(IOUState.class, criteria, onePage));
+                                calls.increment();
+                            } catch (RuntimeException e) {
+                                errors.increment();
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> caller : running) {
+                    caller.get();
+                }
+                callers.shutdown();
+                final String result = String.format("pool size %s: %.1f calls/s, %d errors (%d threads, %d s)",
+                        size.trim(), calls.sum() / (double) seconds, errors.sum(), threads, seconds);
+                logger.info(result);
+                results.add(result);
+            }
+        }
+        results.forEach(System.out::println);
+    }
+}
@@ -0,0 +1,367 @@
+package com.example.client;
+
+import com.example.state.IOUState;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCClientConfiguration;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.*;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Streams IOU states from a node, surviving node restarts and dropped connections.
+ * <p>
+ * The feed keeps a high-water mark: a time before which every change has been delivered, plus the last [StateRef] it
+ * delivered. After a reconnect, or a restart of the client, it queries only the states recorded or consumed since the
+ * mark instead of downloading the whole vault again. Delivery is at-least-once: states touched at exactly the
+ * high-water mark may be delivered twice.
+ * <p>
+ * Each state is delivered with the [Checkpoint] the feed could resume from once that state, and every state delivered
+ * before it, has been processed. The listener commits a checkpoint when it has finished with its state, which persists
+ * it to the checkpoint file, so a restarted client never resumes past a state it had not yet processed.
+ */
+public class ResumableVaultFeed {
+    private static final Logger logger = LoggerFactory.getLogger(ResumableVaultFeed.class);
+
+    /**
+     * Receives the states streamed by the feed.
+     */
+    public interface Listener {
+        void produced(StateAndRef<IOUState> state, Checkpoint checkpoint);
+
+        default void consumed(StateAndRef<IOUState> state, Checkpoint checkpoint) { }
+    }
+
+    /**
+     * A position the feed can resume from. Committing it persists it to the checkpoint file, unless a later checkpoint
+     * has already been committed. Commit a checkpoint only once its state, and every state delivered before it, has
+     * been processed.
+     */
+    public static final class Checkpoint {
+        private final ResumableVaultFeed feed;
+        private final long sequence;
+        private final Instant highWaterMark;
+        private final StateRef lastRef;
+
+        private Checkpoint(ResumableVaultFeed feed, long sequence, Instant highWaterMark, StateRef lastRef) {
+            this.feed = feed;
+            this.sequence = sequence;
+            this.highWaterMark = highWaterMark;
+            this.lastRef = lastRef;
+        }
+
+        public void commit() throws IOException {
+            feed.commit(this);
+        }
+
+        @Override
+        public String toString() {
+            return highWaterMark + " / " + lastRef;
+        }
+    }
+
+    // Marks the end of the update stream in the event queue.
+    private static final Object COMPLETED = new Object();
+
+    // The outputs of one transaction share a recorded time, so the state reference breaks ties to give a total order.
+    private static final Sort BY_RECORDED_TIME = new Sort(ImmutableSet.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    // How far a state's recorded time may precede the update announcing it. States the catch-up delivers from this
+    // long before the subscription, and updates arriving this long after the catch-up, are checked for duplicates.
+    private static final Duration UPDATE_OVERLAP = Duration.ofMinutes(1);
+
+    private final NetworkHostAndPort nodeAddress;
+    private final String username;
+    private final String password;
+    private final Path checkpointFile;
+    private final Listener listener;
+    private final int pageSize;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    // The position reached by delivery, which the feed resumes from after a reconnect.
+    private Instant highWaterMark;
+    private StateRef lastRef;
+    private long delivered;
+    // The last checkpoint persisted to the checkpoint file.
+    private long committed;
+
+    /**
+     * @param checkpointFile where committed checkpoints are persisted between runs, or null to keep the high-water mark
+     *                       in memory only.
+     */
+    public ResumableVaultFeed(NetworkHostAndPort nodeAddress, String username, String password, Path checkpointFile,
+                              Listener listener, int pageSize, long initialBackoffMillis, long maxBackoffMillis) {
+        this.nodeAddress = nodeAddress;
+        this.username = username;
+        this.password = password;
+        this.checkpointFile = checkpointFile;
+        this.listener = listener;
+        this.pageSize = pageSize;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Runs the feed until the calling thread is interrupted, reconnecting with exponential backoff whenever the
+     * connection is lost.
+     */
+    public void run() throws InterruptedException {
+        loadCheckpoint();
+        long backoffMillis = initialBackoffMillis;
+        while (!Thread.currentThread().isInterrupted()) {
+            CordaRPCConnection connection = null;
+            try {
+                connection = new CordaRPCClient(nodeAddress, CordaRPCClientConfiguration.DEFAULT).start(username, password);
+                logger.info("Connected to {}, resuming from {} / {}", nodeAddress, highWaterMark, lastRef);
+                backoffMillis = initialBackoffMillis;
+                stream(connection.getProxy());
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                logger.warn("Vault feed from {} failed, reconnecting in {} ms: {}", nodeAddress, backoffMillis, e.getMessage());
+            } finally {
+                closeQuietly(connection);
+            }
+            Thread.sleep(backoffMillis);
+            backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+        }
+    }
+
+    /**
+     * Catches up from the high-water mark and then follows live updates until the update stream ends or fails.
+     * <p>
+     * The catch-up is streamed in pages of [pageSize]. Pages are keyed on recorded time rather than on page number, so
+     * states consumed while we page do not shift later states into pages we have already read. Updates are subscribed
+     * to before the first page is read and buffered until the catch-up ends. States that both appear in a page and
+     * arrive as an update are delivered only once. The references kept to detect this are dropped once the updates
+     * that may repeat the catch-up have been delivered.
+     */
+    private void stream(CordaRPCOps proxy) throws Exception {
+        final QueryCriteria criteria = resumeCriteria(proxy);
+
+        // Anything the pages return from shortly before this time may also arrive as an update.
+        final Instant subscribedFrom = proxy.currentNodeTime();
+        final Instant overlapFrom = subscribedFrom.minus(UPDATE_OVERLAP);
+        final DataFeed<Vault.Page<IOUState>, Vault.Update<IOUState>> feed =
+                proxy.vaultTrackBy(criteria, new PageSpecification(1, pageSize), BY_RECORDED_TIME, IOUState.class);
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        final Subscription subscription = feed.getUpdates().subscribe(events::add, events::add, () -> events.add(COMPLETED));
+        try {
+            final Set<StateRef> producedDuringCatchUp = new HashSet<>();
+            final Set<StateRef> consumedDuringCatchUp = new HashSet<>();
+            catchUp(proxy, criteria, feed.getSnapshot(), subscribedFrom, overlapFrom, producedDuringCatchUp, consumedDuringCatchUp);
+            final long overlapEndsNanos = System.nanoTime() + UPDATE_OVERLAP.toNanos();
+
+            while (true) {
+                final Object event = events.take();
+                if (System.nanoTime() - overlapEndsNanos > 0) {
+                    // The updates that could repeat the catch-up have been delivered, so the rest are never skipped.
+                    producedDuringCatchUp.clear();
+                    consumedDuringCatchUp.clear();
+                }
+                if (event == COMPLETED) {
+                    throw new IllegalStateException("Vault update stream completed.");
+                } else if (event instanceof Throwable) {
+                    throw new IllegalStateException("Vault update stream failed.", (Throwable) event);
+                }
+                // Besides COMPLETED and the error, the queue only holds what the feed's onNext delivers, which the
+                // feed's type guarantees to be a Vault.Update<IOUState>. The cast cannot be checked because of erasure.
+                @SuppressWarnings("unchecked")
+                final Vault.Update<IOUState> update = (Vault.Update<IOUState>) event;
+                deliver(update, producedDuringCatchUp, consumedDuringCatchUp);
+            }
+        } finally {
+            subscription.unsubscribe();
+        }
+    }
+
+    /**
+     * Pages through the catch-up with a keyset cursor: the latest recorded time delivered, and the references of the
+     * states delivered at that time. Each query after the first asks again for states recorded at or after the cursor
+     * time, and the states at that time whose references are in the cursor are skipped. Pages are ordered by recorded
+     * time and then by state reference, so if a whole page shares the cursor time, the next query can move on by page
+     * number instead without skipping or repeating a state.
+     */
+    private void catchUp(CordaRPCOps proxy, QueryCriteria criteria, Vault.Page<IOUState> firstPage, Instant subscribedFrom,
+                         Instant overlapFrom, Set<StateRef> producedDuringCatchUp, Set<StateRef> consumedDuringCatchUp) {
+        Vault.Page<IOUState> page = firstPage;
+        Instant cursor = null;
+        final Set<StateRef> deliveredAtCursor = new HashSet<>();
+        int pageNumber = 1;
+        while (true) {
+            boolean advanced = false;
+            final List<StateAndRef<IOUState>> states = page.getStates();
+            final List<Vault.StateMetadata> metadata = page.getStatesMetadata();
+            for (int i = 0; i < states.size(); i++) {
+                final StateAndRef<IOUState> state = states.get(i);
+                final Vault.StateMetadata stateMetadata = metadata.get(i);
+                final Instant recordedTime = stateMetadata.getRecordedTime();
+                if (recordedTime.equals(cursor) && deliveredAtCursor.contains(state.getRef())) {
+                    continue;
+                }
+                // Every state recorded before this one has been delivered, and so has every consumption before we
+                // subscribed; later consumptions of those states arrive as updates.
+                advance(recordedTime.isBefore(subscribedFrom) ? recordedTime : subscribedFrom);
+                lastRef = null;
+                final Checkpoint checkpoint = checkpoint();
+                listener.produced(state, checkpoint);
+                if (!recordedTime.isBefore(overlapFrom)) {
+                    producedDuringCatchUp.add(state.getRef());
+                }
+                if (stateMetadata.getStatus() == Vault.StateStatus.CONSUMED) {
+                    listener.consumed(state, checkpoint);
+                    if (!stateMetadata.getConsumedTime().isBefore(overlapFrom)) {
+                        consumedDuringCatchUp.add(state.getRef());
+                    }
+                }
+
+                if (cursor == null || recordedTime.isAfter(cursor)) {
+                    cursor = recordedTime;
+                    deliveredAtCursor.clear();
+                    advanced = true;
+                }
+                deliveredAtCursor.add(state.getRef());
+            }
+            if (states.size() < pageSize) {
+                return;
+            }
+            pageNumber = advanced ? 1 : pageNumber + 1;
+            final QueryCriteria fromCursor = criteria.and(new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL, null, null, null, null,
+                    new QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.RECORDED, Builder.greaterThanOrEqual(cursor))));
+            page = proxy.vaultQueryBy(fromCursor, new PageSpecification(pageNumber, pageSize), BY_RECORDED_TIME, IOUState.class);
+        }
+    }
+
+    /**
+     * On the first run only the unconsumed states are of interest. Once a high-water mark exists, everything recorded
+     * or consumed since then is fetched, so that consumptions missed while disconnected are delivered too.
+     */
+    private QueryCriteria resumeCriteria(CordaRPCOps proxy) {
+        if (lastRef != null) {
+            // Live updates carry no timestamps, so the mark is advanced to the time the last state seen was recorded.
+            // Its consumed time is not used: the consumption may have happened after the states that followed it.
+            final QueryCriteria lastRefCriteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL, null, ImmutableList.of(lastRef));
+            for (Vault.StateMetadata metadata : proxy.vaultQueryByCriteria(lastRefCriteria, IOUState.class).getStatesMetadata()) {
+                advance(metadata.getRecordedTime());
+            }
+        }
+        if (highWaterMark == null) {
+            return new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        }
+        final QueryCriteria recordedSince = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL, null, null, null, null,
+                new QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.RECORDED, Builder.greaterThanOrEqual(highWaterMark)));
+        final QueryCriteria consumedSince = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL, null, null, null, null,
+                new QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.CONSUMED, Builder.greaterThanOrEqual(highWaterMark)));
+        return recordedSince.or(consumedSince);
+    }
+
+    private void deliver(Vault.Update<IOUState> update, Set<StateRef> producedDuringCatchUp, Set<StateRef> consumedDuringCatchUp) {
+        for (StateAndRef<IOUState> state : update.getConsumed()) {
+            lastRef = state.getRef();
+            if (!consumedDuringCatchUp.remove(state.getRef())) {
+                listener.consumed(state, checkpoint());
+            }
+        }
+        for (StateAndRef<IOUState> state : update.getProduced()) {
+            lastRef = state.getRef();
+            if (!producedDuringCatchUp.remove(state.getRef())) {
+                listener.produced(state, checkpoint());
+            }
+        }
+    }
+
+    private Checkpoint checkpoint() {
+        return new Checkpoint(this, ++delivered, highWaterMark, lastRef);
+    }
+
+    private synchronized void commit(Checkpoint checkpoint) throws IOException {
+        if (checkpoint.sequence <= committed) {
+            return;
+        }
+        saveCheckpoint(checkpoint.highWaterMark, checkpoint.lastRef);
+        committed = checkpoint.sequence;
+    }
+
+    private void advance(Instant time) {
+        if (highWaterMark == null || time.isAfter(highWaterMark)) {
+            highWaterMark = time;
+        }
+    }
+
+    private void loadCheckpoint() {
+        if (checkpointFile == null || !Files.exists(checkpointFile)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(checkpointFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read vault feed checkpoint " + checkpointFile, e);
+        }
+        final String mark = properties.getProperty("highWaterMark");
+        final String txHash = properties.getProperty("lastRef.txhash");
+        final String index = properties.getProperty("lastRef.index");
+        highWaterMark = mark == null ? null : Instant.parse(mark);
+        lastRef = txHash == null || index == null ? null : new StateRef(SecureHash.parse(txHash), Integer.parseInt(index));
+    }
+
+    private void saveCheckpoint(Instant highWaterMark, StateRef lastRef) throws IOException {
+        if (checkpointFile == null) {
+            return;
+        }
+        final Properties properties = new Properties();
+        if (highWaterMark != null) {
+            properties.setProperty("highWaterMark", highWaterMark.toString());
+        }
+        if (lastRef != null) {
+            properties.setProperty("lastRef.txhash", lastRef.getTxhash().toString());
+            properties.setProperty("lastRef.index", Integer.toString(lastRef.getIndex()));
+        }
+        // Write to a sibling file and rename it into place so that a crash never leaves a truncated checkpoint.
+        final Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            properties.store(out, "ResumableVaultFeed high-water mark");
+        }
+        Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void closeQuietly(CordaRPCConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.notifyServerAndClose();
+        } catch (Exception e) {
+            logger.debug("Ignoring error closing RPC connection: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.client;
+
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces items into batches bounded by size and by delay, and hands each batch to a [Sink] on a worker pool.
+ * <p>
+ * Items wait in a bounded buffer. When the buffer is full, [submit] blocks the producer rather than dropping items.
+ * The number of batches in the hands of the workers is also bounded, so a slow sink pushes back through the buffer
+ * to the producer. The time producers spend blocked is exposed through [metrics].
+ * <p>
+ * A batch the sink fails on is retried, with backoff, until the sink accepts it, so a failing sink also pushes back
+ * rather than losing items. Batches run concurrently when there is more than one worker, so the sink must not rely on
+ * batch ordering. With a single worker, a batch is never handed over until the sink has accepted the one before it.
+ */
+public class UpdateBatcher<T> implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(UpdateBatcher.class);
+
+    private static final long INITIAL_RETRY_MILLIS = 100;
+    private static final long MAX_RETRY_MILLIS = 10_000;
+
+    /**
+     * Receives the batches. A sink that throws is given the same batch again; each failure is logged and counted.
+     */
+    public interface Sink<T> {
+        void accept(List<T> batch) throws Exception;
+    }
+
+    private final BlockingQueue<T> buffer;
+    private final int bufferCapacity;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Sink<T> sink;
+    private final ExecutorService workers;
+    private final Semaphore batchPermits;
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder sinkFailures = new LongAdder();
+    private final LongAdder blockedSubmits = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final AtomicLong maxDepth = new AtomicLong();
+
+    /**
+     * @param bufferCapacity the number of items that may wait for a batch before producers block.
+     * @param maxBatchSize   the largest batch handed to the sink.
+     * @param maxDelayMillis the longest the first item of a batch waits for the batch to fill.
+     * @param workerCount    the number of threads calling the sink; each may hold one batch, plus one queued.
+     */
+    public UpdateBatcher(Sink<T> sink, int bufferCapacity, int maxBatchSize, long maxDelayMillis, int workerCount) {
+        this.sink = sink;
+        this.bufferCapacity = bufferCapacity;
+        this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.workers = Executors.newFixedThreadPool(workerCount, daemonThreads("update-batcher-worker"));
+        this.batchPermits = new Semaphore(workerCount * 2);
+        this.flusher = daemonThreads("update-batcher-flusher").newThread(this::flushLoop);
+        this.flusher.start();
+    }
+
+    /**
+     * Adds an item to the next batch, blocking while the buffer is full.
+     */
+    public void submit(T item) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("UpdateBatcher is closed.");
+        }
+        if (!buffer.offer(item)) {
+            final long start = System.nanoTime();
+            buffer.put(item);
+            blockedSubmits.increment();
+            blockedNanos.add(System.nanoTime() - start);
+        }
+        submitted.increment();
+        final int depth = buffer.size();
+        if (depth > maxDepth.get()) {
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    /**
+     * A point-in-time view of the batcher's counters.
+     */
+    public Map<String, Long> metrics() {
+        return ImmutableMap.<String, Long>builder()
+                .put("submitted", submitted.sum())
+                .put("delivered", delivered.sum())
+                .put("batches", batches.sum())
+                .put("sinkFailures", sinkFailures.sum())
+                .put("bufferDepth", (long) buffer.size())
+                .put("bufferCapacity", (long) bufferCapacity)
+                .put("maxBufferDepth", maxDepth.get())
+                .put("blockedSubmits", blockedSubmits.sum())
+                .put("blockedMillis", TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum()))
+                .build();
+    }
+
+    /**
+     * Flushes the buffered items and waits for the sink to process them. If the sink has not accepted them within a
+     * minute, the batches still waiting or being retried are abandoned.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        flusher.join();
+        workers.shutdown();
+        if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+            final int abandoned = workers.shutdownNow().size();
+            logger.error("Update batcher closed with {} batches queued and a batch still failing", abandoned);
+        }
+    }
+
+    private void flushLoop() {
+        try {
+            while (!closed || !buffer.isEmpty()) {
+                final T first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                final List<T> batch = new ArrayList<>(maxBatchSize);
+                batch.add(first);
+                final long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    buffer.drainTo(batch, maxBatchSize - batch.size());
+                    final long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    final T next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                dispatch(batch);
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Update batcher interrupted with {} items buffered", buffer.size());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch(List<T> batch) throws InterruptedException {
+        batchPermits.acquire();
+        batches.increment();
+        workers.execute(() -> {
+            try {
+                deliver(batch);
+            } catch (InterruptedException e) {
+                logger.error("Update batcher abandoned a batch of {} items", batch.size());
+                Thread.currentThread().interrupt();
+            } finally {
+                batchPermits.release();
+            }
+        });
+    }
+
+    private void deliver(List<T> batch) throws InterruptedException {
+        long retryMillis = INITIAL_RETRY_MILLIS;
+        while (true) {
+            try {
+                sink.accept(batch);
+                delivered.add(batch.size());
+                return;
+            } catch (Exception e) {
+                sinkFailures.increment();
+                logger.error("Sink failed on a batch of {} items, retrying in {} ms", batch.size(), retryMillis, e);
+            }
+            Thread.sleep(retryMillis);
+            retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -2,23 +2,44 @@ package com.example.flow;
 
 import co.paralleluniverse.fibers.Suspendable;
 import com.example.contract.IOUContract;
+import com.example.schema.IOUSchemaV2;
+import com.example.service.AcceptanceService;
+import com.example.service.LinearIdFilterService;
 import com.example.state.IOUState;
+import com.example.trace.StageTracer;
+import com.example.trace.TraceContext;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TimeWindow;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.crypto.TransactionSignature;
 import net.corda.core.flows.*;
 import net.corda.core.identity.Party;
 import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.PageSpecification;
 import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.LedgerTransaction;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.core.utilities.ProgressTracker.Step;
 
+import java.lang.reflect.Field;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static com.example.contract.IOUContract.IOU_CONTRACT_ID;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
@@ -38,23 +59,27 @@ public class ExampleFlow {
 
 
     /* --------------------- Initiator Flow ------------------------------------------------------------------------- */
-    @InitiatingFlow
+    // Version 2 sends the trace context ahead of the transaction. Each side only exchanges it with a version 2
+    // counterparty, so nodes still running version 1 can keep issuing IOUs with upgraded ones.
+    @InitiatingFlow(version = TRACED_FLOW_VERSION)
     @StartableByRPC
     public static class Initiator extends FlowLogic<SignedTransaction> {
 
         private final int iouValue;
         private final Party otherParty;
+        private final Instant maturity;
+        private final TraceContext trace;
 
-        private final Step GENERATING_TRANSACTION = new Step("Generating transaction based on new IOU.");
-        private final Step VERIFYING_TRANSACTION = new Step("Verifying contract constraints.");
-        private final Step SIGNING_TRANSACTION = new Step("Signing transaction with our private key.");
-        private final Step GATHERING_SIGS = new Step("Gathering the counterparty's signature.") {
+        private static final Step GENERATING_TRANSACTION = new Step("Generating transaction based on new IOU.");
+        private static final Step VERIFYING_TRANSACTION = new Step("Verifying contract constraints.");
+        private static final Step SIGNING_TRANSACTION = new Step("Signing transaction with our private key.");
+        private static final Step GATHERING_SIGS = new Step("Gathering the counterparty's signature.") {
             @Override
             public ProgressTracker childProgressTracker() {
                 return CollectSignaturesFlow.Companion.tracker();
             }
         };
-        private final Step FINALISING_TRANSACTION = new Step("Obtaining notary signature and recording transaction.") {
+        private static final Step FINALISING_TRANSACTION = new Step("Obtaining notary signature and recording transaction.") {
             @Override
             public ProgressTracker childProgressTracker() {
                 return FinalityFlow.Companion.tracker();
@@ -73,8 +98,26 @@ public class ExampleFlow {
         );
 
         public Initiator(int iouValue, Party otherParty) {
+            this(iouValue, otherParty, null, null);
+        }
+
+        public Initiator(int iouValue, Party otherParty, Instant maturity) {
+            this(iouValue, otherParty, maturity, null);
+        }
+
+        public Initiator(int iouValue, Party otherParty, TraceContext trace) {
+            this(iouValue, otherParty, null, trace);
+        }
+
+        /**
+         * @param maturity the time at which the IOU falls due, or null for an open-ended IOU.
+         * @param trace    the trace to record this flow's stages under, or null to start a new trace.
+         */
+        public Initiator(int iouValue, Party otherParty, Instant maturity, TraceContext trace) {
             this.iouValue = iouValue;
             this.otherParty = otherParty;
+            this.maturity = maturity;
+            this.trace = trace;
         }
 
         @Override
@@ -88,20 +131,230 @@ public class ExampleFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            final StageTracer tracer = new StageTracer(trace == null ? TraceContext.newTrace(null) : trace, "Initiator", getOurIdentity().getName().toString());
+
+            // Stages 1 to 3 do not suspend, so they run in their own method. Quasar checkpoints every local of a
+            // suspending frame, and this keeps the builder and its parts out of the checkpoints taken below.
+            final SignedTransaction partSignedTx = generateAndSign(tracer);
+
+            // Stage 4.
+            progressTracker.setCurrentStep(GATHERING_SIGS);
+            tracer.stage("GATHERING_SIGS");
+            // Send the trace context ahead of the transaction, if the counterparty expects it, so its spans join this
+            // trace. Then send the state to the counterparty, and receive it back with their signature.
+            FlowSession otherPartySession = initiateFlow(otherParty);
+            if (otherPartySession.getCounterpartyFlowInfo().getFlowVersion() >= TRACED_FLOW_VERSION) {
+                otherPartySession.send(tracer.context());
+            }
+            final SignedTransaction fullySignedTx = subFlow(
+                    new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
+
+            // Stage 5.
+            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+            tracer.stage("FINALISING_TRANSACTION");
+            // Notarise and record the transaction in both parties' vaults.
+            final SignedTransaction finalisedTx = subFlow(new FinalityFlow(fullySignedTx));
+            tracer.finish();
+            return finalisedTx;
+        }
+
+        private SignedTransaction generateAndSign(StageTracer tracer) throws FlowException {
             // Obtain a reference to the notary we want to use.
             final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            final Party me = getOurIdentity();
 
             // Stage 1.
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+            tracer.stage("GENERATING_TRANSACTION");
             // Generate an unsigned transaction.
-            Party me = getOurIdentity();
-            IOUState iouState = new IOUState(iouValue, me, otherParty, new UniqueIdentifier());
+            Instant issuedAt = getServiceHub().getClock().instant();
+            IOUState iouState = new IOUState(iouValue, me, otherParty, issuedAt, maturity, new UniqueIdentifier());
             final Command<IOUContract.Commands.Create> txCommand = new Command<>(
                     new IOUContract.Commands.Create(),
                     ImmutableList.of(iouState.getLender().getOwningKey(), iouState.getBorrower().getOwningKey()));
             final TransactionBuilder txBuilder = new TransactionBuilder(notary)
                     .addOutputState(iouState, IOU_CONTRACT_ID)
-                    .addCommand(txCommand);
+                    .addCommand(txCommand)
+                    .setTimeWindow(TimeWindow.withTolerance(issuedAt, ISSUANCE_TOLERANCE));
+
+            // Stage 2.
+            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+            tracer.stage("VERIFYING_TRANSACTION");
+            // Verify that the transaction is valid.
+            txBuilder.verify(getServiceHub());
+
+            // Stage 3.
+            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            tracer.stage("SIGNING_TRANSACTION");
+            // Sign the transaction.
+            return getServiceHub().signInitialTransaction(txBuilder);
+        }
+    }
+
+    /* --------------------- Acceptor Flow ------------------------------------------------------------------------- */
+    @InitiatedBy(Initiator.class) //this flow is called by initiator
+    public static class Acceptor extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartyFlow;
+
+        public Acceptor(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        private static class SignTxFlow extends SignTransactionFlow {
+            private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                super(otherPartyFlow, progressTracker);
+            }
+
+            /**
+             * Checks every output against our [AcceptanceService] policy. The decision uses exposure totals held in
+             * memory, so signing does not query the vault.
+             */
+            @Override
+            protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                final Party lender = getOtherSideSession().getCounterparty();
+                final Party me = getOurIdentity();
+                final List<IOUState> ious = new ArrayList<>(stx.getTx().getOutputStates().size());
+                requireThat(require -> {
+                    require.using("This must be an IOU transaction.", !stx.getTx().getOutputStates().isEmpty());
+                    for (ContractState output : stx.getTx().getOutputStates()) {
+                        require.using("This must be an IOU transaction.", output instanceof IOUState);
+                        IOUState iou = (IOUState) output;
+                        require.using("Every IOU must be issued by the counterparty to us.",
+                                iou.getLender().equals(lender) && iou.getBorrower().equals(me));
+                        ious.add(iou);
+                    }
+                    return null;
+                });
+                final String rejection = getServiceHub().cordaService(AcceptanceService.class).check(lender, ious);
+                if (rejection != null) {
+                    throw new FlowException(rejection);
+                }
+            }
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            // An Initiator from version 2 on sends its trace context before the transaction. An older one sends none,
+            // so our spans start a trace of their own.
+            final TraceContext trace;
+            if (otherPartyFlow.getCounterpartyFlowInfo().getFlowVersion() >= TRACED_FLOW_VERSION) {
+                trace = otherPartyFlow.receive(TraceContext.class).unwrap(context -> {
+                    if (context.getTraceId() == null) {
+                        throw new FlowException("The trace context has no trace id.");
+                    }
+                    return context;
+                });
+            } else {
+                trace = TraceContext.newTrace(null);
+            }
+            final StageTracer tracer = new StageTracer(trace, "Acceptor", getOurIdentity().getName().toString());
+            tracer.stage("SIGNING_TRANSACTION");
+            final SignedTransaction signedTx = subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+            tracer.finish();
+            return signedTx;
+        }
+    }
+
+
+    /* --------------------- Multi Issuer Flow ------------------------------------------------------------------------- */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class MultiIssuer extends FlowLogic<SignedTransaction> {
+
+        private final int iouValue;
+        private final List<Party> borrowers;
+        private final Instant maturity;
+
+        private static final Step GENERATING_TRANSACTION = new Step("Generating transaction with an IOU for each borrower.");
+        private static final Step VERIFYING_TRANSACTION = new Step("Verifying contract constraints.");
+        private static final Step SIGNING_TRANSACTION = new Step("Signing transaction with our private key.");
+        private static final Step SENDING_TO_BORROWERS = new Step("Sending the transaction to every borrower.");
+        private static final Step GATHERING_SIGS = new Step("Gathering the borrowers' signatures.");
+        private static final Step FINALISING_TRANSACTION = new Step("Obtaining notary signature and recording transaction.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+
+        // The progress tracker checkpoints each stage of the flow and outputs the specified messages when each
+        // checkpoint is reached in the code. See the 'progressTracker.currentStep' expressions within the call()
+        // function.
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                SENDING_TO_BORROWERS,
+                GATHERING_SIGS,
+                FINALISING_TRANSACTION
+        );
+
+        // The steps before notarisation starts. Until then nothing has been sent to the notary, so the flow can be
+        // killed without leaving a notarised transaction that the borrowers never receive.
+        private static final Set<String> BEFORE_FINALITY = ImmutableSet.of(
+                GENERATING_TRANSACTION.getLabel(),
+                VERIFYING_TRANSACTION.getLabel(),
+                SIGNING_TRANSACTION.getLabel(),
+                SENDING_TO_BORROWERS.getLabel(),
+                GATHERING_SIGS.getLabel());
+
+        public MultiIssuer(int iouValue, List<Party> borrowers) {
+            this(iouValue, borrowers, null);
+        }
+
+        /**
+         * @param borrowers the parties each receiving an IOU of [iouValue]; each may appear only once.
+         * @param maturity  the time at which the IOUs fall due, or null for open-ended IOUs.
+         */
+        public MultiIssuer(int iouValue, List<Party> borrowers, Instant maturity) {
+            this.iouValue = iouValue;
+            this.borrowers = borrowers;
+            this.maturity = maturity;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        /**
+         * Whether a flow whose progress tracker last reported the given step has not yet started notarising.
+         */
+        public static boolean isBeforeFinality(String stepLabel) {
+            return BEFORE_FINALITY.contains(stepLabel);
+        }
+
+        /**
+         * Issues an IOU to every borrower in a single transaction. [CollectSignaturesFlow] asks the signers one after
+         * another, so the whole round trip would grow with the number of borrowers. Instead the transaction is sent to
+         * every borrower before any reply is awaited. The borrowers then check and sign it at the same time, and the
+         * flow waits roughly as long as the slowest of them.
+         */
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            if (borrowers.isEmpty()) {
+                throw new FlowException("At least one borrower is needed.");
+            }
+            // Obtain a reference to the notary we want to use.
+            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            final Party me = getOurIdentity();
+
+            // Stage 1.
+            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+            // Generate an unsigned transaction with one output per borrower, signed by the lender and every borrower.
+            final Instant issuedAt = getServiceHub().getClock().instant();
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary)
+                    .setTimeWindow(TimeWindow.withTolerance(issuedAt, ISSUANCE_TOLERANCE));
+            final List<PublicKey> signers = new ArrayList<>(borrowers.size() + 1);
+            signers.add(me.getOwningKey());
+            for (Party borrower : borrowers) {
+                txBuilder.addOutputState(new IOUState(iouValue, me, borrower, issuedAt, maturity, new UniqueIdentifier()), IOU_CONTRACT_ID);
+                signers.add(borrower.getOwningKey());
+            }
+            txBuilder.addCommand(new Command<>(new IOUContract.Commands.CreateMany(), signers));
 
             // Stage 2.
             progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
@@ -114,64 +367,115 @@ public class ExampleFlow {
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
 
             // Stage 4.
-            progressTracker.setCurrentStep(GATHERING_SIGS);
-            // Send the state to the counterparty, and receive it back with their signature.
-            FlowSession otherPartySession = initiateFlow(otherParty);
-            final SignedTransaction fullySignedTx = subFlow(
-                    new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
+            progressTracker.setCurrentStep(SENDING_TO_BORROWERS);
+            // Send the transaction to every borrower before waiting for any of them.
+            final List<FlowSession> sessions = new ArrayList<>(borrowers.size());
+            for (Party borrower : borrowers) {
+                final FlowSession session = initiateFlow(borrower);
+                session.send(partSignedTx);
+                sessions.add(session);
+            }
 
             // Stage 5.
+            progressTracker.setCurrentStep(GATHERING_SIGS);
+            // Collect each borrower's signature over the transaction id.
+            final List<TransactionSignature> signatures = new ArrayList<>(sessions.size());
+            for (FlowSession session : sessions) {
+                final PublicKey borrowerKey = session.getCounterparty().getOwningKey();
+                signatures.add(session.receive(TransactionSignature.class).unwrap(signature -> {
+                    if (!signature.getBy().equals(borrowerKey)) {
+                        throw new FlowException(String.format("%s signed with a key other than its own.", session.getCounterparty().getName()));
+                    }
+                    final String invalid = String.format("%s returned an invalid signature.", session.getCounterparty().getName());
+                    try {
+                        if (!signature.verify(partSignedTx.getId())) {
+                            throw new FlowException(invalid);
+                        }
+                    } catch (GeneralSecurityException e) {
+                        throw new FlowException(invalid, e);
+                    }
+                    return signature;
+                }));
+            }
+            final SignedTransaction fullySignedTx = partSignedTx.withAdditionalSignatures(signatures);
+
+            // Stage 6.
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
-            // Notarise and record the transaction in both parties' vaults.
+            // Notarise and record the transaction in every party's vault.
             return subFlow(new FinalityFlow(fullySignedTx));
         }
     }
 
-    /* --------------------- Acceptor Flow ------------------------------------------------------------------------- */
-    @InitiatedBy(Initiator.class) //this flow is called by initiator
-    public static class Acceptor extends FlowLogic<SignedTransaction> {
+    /* --------------------- Multi Issue Acceptor Flow ------------------------------------------------------------------ */
+    @InitiatedBy(MultiIssuer.class) //this flow is called by multi issuer
+    public static class MultiIssueAcceptor extends FlowLogic<Void> {
 
         private final FlowSession otherPartyFlow;
 
-        public Acceptor(FlowSession otherPartyFlow) {
+        public MultiIssueAcceptor(FlowSession otherPartyFlow) {
             this.otherPartyFlow = otherPartyFlow;
         }
 
+        /**
+         * Checks the transaction, applying the same [AcceptanceService] policy as the [Acceptor] to our own IOU, and
+         * returns our signature over it. The transaction has no inputs, so there are no dependencies to resolve before
+         * verifying it.
+         */
         @Suspendable
         @Override
-        public SignedTransaction call() throws FlowException {
-            class SignTxFlow extends SignTransactionFlow {
-                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
-                    super(otherPartyFlow, progressTracker);
-                }
-
-                @Override
-                protected void checkTransaction(SignedTransaction stx) {
+        public Void call() throws FlowException {
+            final Party me = getOurIdentity();
+            final Party lender = otherPartyFlow.getCounterparty();
+            // Failed checks are rethrown as FlowExceptions, which, unlike other errors, reach the issuer's flow.
+            final SignedTransaction stx = otherPartyFlow.receive(SignedTransaction.class).unwrap(tx -> {
+                try {
                     requireThat(require -> {
-                        ContractState output = stx.getTx().getOutputs().get(0).getData();
-                        require.using("This must be an IOU transaction.", output instanceof IOUState);
-                        IOUState iou = (IOUState) output;
-                        require.using("I won't accept IOUs with a value over 100.", iou.getValue() <= 100);
+                        require.using("This must be an IOU multi issue transaction.",
+                                tx.getTx().getInputs().isEmpty()
+                                        && tx.getTx().getCommands().size() == 1
+                                        && tx.getTx().getCommands().get(0).getValue() instanceof IOUContract.Commands.CreateMany);
+                        IOUState mine = null;
+                        for (ContractState output : tx.getTx().getOutputStates()) {
+                            require.using("This must be an IOU transaction.", output instanceof IOUState);
+                            IOUState iou = (IOUState) output;
+                            require.using("Every IOU must be issued by the counterparty.", iou.getLender().equals(lender));
+                            if (iou.getBorrower().equals(me)) {
+                                mine = iou;
+                            }
+                        }
+                        require.using("The transaction must issue an IOU to us.", mine != null);
+                        final String rejection = getServiceHub().cordaService(AcceptanceService.class).check(lender, ImmutableList.of(mine));
+                        if (rejection != null) {
+                            throw new IllegalArgumentException(rejection);
+                        }
                         return null;
                     });
+                } catch (IllegalArgumentException e) {
+                    throw new FlowException(e.getMessage());
                 }
+                return tx;
+            });
+            try {
+                stx.verify(getServiceHub(), false);
+            } catch (GeneralSecurityException e) {
+                throw new FlowException(e);
             }
-
-            return subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+            otherPartyFlow.send(getServiceHub().createSignature(stx, me.getOwningKey()));
+            return null;
         }
     }
 
 
-    /* --------------------- Destroyer Flow ------------------------------------------------------------------------- */
+    /* --------------------- Destroyer Flow------------------------------------------------------------------------- */
     @InitiatingFlow
     @StartableByRPC
     public static class Destroyer extends FlowLogic<SignedTransaction> {
 
-        private final Step GENERATING_CANCEL_QUERY_TRANSACTION = new Step("Generating cancel query transaction based on existing IOU.");
-        private final Step GENERATING_CANCEL_TRANSACTION = new Step("Generating cancel transaction based on existing IOU.");
-        private final Step VERIFYING_CANCEL_TRANSACTION = new Step("Verifying cancel contract constraints.");
-        private final Step SIGNING_CANCEL_TRANSACTION = new Step("Signing cancel transaction with our private key.");
-        private final Step FINALISING_CANCEL_TRANSACTION = new Step("Obtaining notary signature and recording transaction for cancel transaction.") {
+        private static final Step GENERATING_CANCEL_QUERY_TRANSACTION = new Step("Generating cancel query transaction based on existing IOU.");
+        private static final Step GENERATING_CANCEL_TRANSACTION = new Step("Generating cancel transaction based on existing IOU.");
+        private static final Step VERIFYING_CANCEL_TRANSACTION = new Step("Verifying cancel contract constraints.");
+        private static final Step SIGNING_CANCEL_TRANSACTION = new Step("Signing cancel transaction with our private key.");
+        private static final Step FINALISING_CANCEL_TRANSACTION = new Step("Obtaining notary signature and recording transaction for cancel transaction.") {
             @Override
             public ProgressTracker childProgressTracker() {
                 return FinalityFlow.Companion.tracker();
@@ -204,32 +508,30 @@ public class ExampleFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            // Stages 1 to 4 do not suspend, so they run in their own method and stay out of the checkpoint.
+            final SignedTransaction signedTx = generateAndSign();
+
+            // Stage 5.
+            progressTracker.setCurrentStep(FINALISING_CANCEL_TRANSACTION);
+            // Notarise and record the transaction in both parties' vaults.
+            return finalise(this, signedTx);
+        }
+
+        private SignedTransaction generateAndSign() throws FlowException {
             // Obtain a reference to the notary we want to use.
             final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
 
 
             //step 1.
             progressTracker.setCurrentStep(GENERATING_CANCEL_QUERY_TRANSACTION);
-            // Retrieve the state using its linear ID.
-            QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(
-                    null,
-                    ImmutableList.of(linearId),
-                    Vault.StateStatus.UNCONSUMED,
-                    null);
-
-            List<StateAndRef<IOUState>> iouStates = getServiceHub().getVaultService().queryBy(IOUState.class, queryCriteria).getStates();
-            if (iouStates.size() != 1) {
-                throw new FlowException(String.format("IOUState with linearId %s not found.", linearId));
-            }
-            //get the state from the vault
-            StateAndRef<IOUState> inputStateAndRef = iouStates.get(0);
+            // Retrieve the state using its linear ID, and reserve it so that no other flow on this node consumes it.
+            StateAndRef<IOUState> inputStateAndRef = reserveUnconsumed(this, linearId);
 
 
             // Stage 2.
             progressTracker.setCurrentStep(GENERATING_CANCEL_TRANSACTION);
             // Generate an unsigned transaction.
-            Party me = getOurIdentity();
-            IOUState iouState = iouStates.get(0).getState().getData();
+            IOUState iouState = inputStateAndRef.getState().getData();
 
             final Command<IOUContract.Commands.Destroy> txCommand = new Command<>(
                     new IOUContract.Commands.Destroy(),
@@ -248,15 +550,539 @@ public class ExampleFlow {
             // Stage 4.
             progressTracker.setCurrentStep(SIGNING_CANCEL_TRANSACTION);
             // Sign the transaction.
-            final SignedTransaction signedTx = getServiceHub().signInitialTransaction(txBuilder);
+            return getServiceHub().signInitialTransaction(txBuilder);
+        }
+    }
 
 
+    /* --------------------- Settler Flow ------------------------------------------------------------------------- */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Settler extends FlowLogic<SignedTransaction> {
+
+        private static final Step GENERATING_SETTLE_QUERY_TRANSACTION = new Step("Retrieving the IOU being partially repaid.");
+        private static final Step GENERATING_SETTLE_TRANSACTION = new Step("Generating settle transaction reducing the IOU's value.");
+        private static final Step VERIFYING_SETTLE_TRANSACTION = new Step("Verifying settle contract constraints.");
+        private static final Step SIGNING_SETTLE_TRANSACTION = new Step("Signing settle transaction with our private key.");
+        private static final Step GATHERING_SETTLE_SIGS = new Step("Gathering the counterparty's signature.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+        private static final Step FINALISING_SETTLE_TRANSACTION = new Step("Obtaining notary signature and recording settle transaction.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+        // The progress tracker checkpoints each stage of the flow and outputs the specified messages when each
+        // checkpoint is reached in the code. See the 'progressTracker.currentStep' expressions within the call()
+        // function.
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                GENERATING_SETTLE_QUERY_TRANSACTION,
+                GENERATING_SETTLE_TRANSACTION,
+                VERIFYING_SETTLE_TRANSACTION,
+                SIGNING_SETTLE_TRANSACTION,
+                GATHERING_SETTLE_SIGS,
+                FINALISING_SETTLE_TRANSACTION
+        );
+        private final UniqueIdentifier linearId;
+        private final int repayment;
+
+        /**
+         * Started by the borrower. The lender checks the repayment before signing.
+         *
+         * @param linearId  the IOU being partially repaid.
+         * @param repayment the amount repaid, which must be less than the IOU's current value.
+         */
+        public Settler(UniqueIdentifier linearId, int repayment) {
+            this.linearId = linearId;
+            this.repayment = repayment;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        /**
+         * Consumes the IOU and re-issues it under the same linearId with its value reduced by the repayment, in a
+         * single transaction signed by both parties.
+         */
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            if (repayment <= 0) {
+                throw new FlowException("A partial repayment must be positive.");
+            }
+
+            //step 1.
+            progressTracker.setCurrentStep(GENERATING_SETTLE_QUERY_TRANSACTION);
+            // Retrieve the state using its linear ID. It is only reserved, so that no other flow on this node consumes
+            // it, once the repayment has been checked against it.
+            StateAndRef<IOUState> inputStateAndRef = findUnlocked(this, linearId);
+            IOUState inputIOU = inputStateAndRef.getState().getData();
+            Party me = getOurIdentity();
+            if (!inputIOU.getBorrower().equals(me)) {
+                throw new FlowException("Only the borrower can repay an IOU.");
+            }
+            if (repayment >= inputIOU.getValue()) {
+                throw new FlowException(String.format("A partial repayment must be between 0 and %d exclusive.", inputIOU.getValue()));
+            }
+            reserve(this, inputStateAndRef);
+
+            // Stage 2.
+            progressTracker.setCurrentStep(GENERATING_SETTLE_TRANSACTION);
+            // Generate an unsigned transaction, using the notary of the state being consumed.
+            Party counterparty = inputIOU.getLender();
+            IOUState outputIOU = inputIOU.withValue(inputIOU.getValue() - repayment);
+            final Command<IOUContract.Commands.Settle> txCommand = new Command<>(
+                    new IOUContract.Commands.Settle(),
+                    ImmutableList.of(inputIOU.getLender().getOwningKey(), inputIOU.getBorrower().getOwningKey()));
+            final TransactionBuilder txBuilder = new TransactionBuilder(inputStateAndRef.getState().getNotary())
+                    .addInputState(inputStateAndRef)
+                    .addOutputState(outputIOU, IOU_CONTRACT_ID)
+                    .addCommand(txCommand);
+
+            // Stage 3.
+            progressTracker.setCurrentStep(VERIFYING_SETTLE_TRANSACTION);
+            // Verify that the transaction is valid.
+            txBuilder.verify(getServiceHub());
+
+            // Stage 4.
+            progressTracker.setCurrentStep(SIGNING_SETTLE_TRANSACTION);
+            // Sign the transaction.
+            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+
             // Stage 5.
-            progressTracker.setCurrentStep(FINALISING_CANCEL_TRANSACTION);
+            progressTracker.setCurrentStep(GATHERING_SETTLE_SIGS);
+            // Tell the lender how much we are repaying, then send them the transaction, and receive it back with their
+            // signature.
+            FlowSession counterpartySession = initiateFlow(counterparty);
+            counterpartySession.send(repayment);
+            final SignedTransaction fullySignedTx = subFlow(
+                    new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(counterpartySession), CollectSignaturesFlow.Companion.tracker()));
+
+            // Stage 6.
+            progressTracker.setCurrentStep(FINALISING_SETTLE_TRANSACTION);
             // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(signedTx));
+            return finalise(this, fullySignedTx);
+        }
+    }
+
+    /* --------------------- Settle Acceptor Flow ------------------------------------------------------------------ */
+    @InitiatedBy(Settler.class) //this flow is called by settler
+    public static class SettleAcceptor extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartyFlow;
+
+        public SettleAcceptor(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        private static class SignSettleTxFlow extends SignTransactionFlow {
+            private final int repayment;
+
+            private SignSettleTxFlow(FlowSession otherPartyFlow, int repayment, ProgressTracker progressTracker) {
+                super(otherPartyFlow, progressTracker);
+                this.repayment = repayment;
+            }
+
+            /**
+             * Only signs the repayment of an IOU that the counterparty owes us, reduced by exactly the amount they say
+             * they repaid. The inputs have been resolved by the time this runs, so they can be loaded from the
+             * transaction.
+             */
+            @Override
+            protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                final Party me = getOurIdentity();
+                final Party borrower = getOtherSideSession().getCounterparty();
+                final LedgerTransaction ltx;
+                try {
+                    ltx = stx.toLedgerTransaction(getServiceHub(), false);
+                } catch (GeneralSecurityException e) {
+                    throw new FlowException(e);
+                }
+                requireThat(require -> {
+                    require.using("This must be an IOU settle transaction.",
+                            ltx.getCommands().size() == 1
+                                    && ltx.getCommands().get(0).getValue() instanceof IOUContract.Commands.Settle);
+                    require.using("A settle transaction must replace one IOU with one IOU.",
+                            ltx.getInputs().size() == 1 && ltx.getOutputs().size() == 1);
+                    ContractState input = ltx.getInput(0);
+                    ContractState output = ltx.getOutput(0);
+                    require.using("This must be an IOU transaction.", input instanceof IOUState && output instanceof IOUState);
+                    IOUState in = (IOUState) input;
+                    require.using("Only an IOU the counterparty owes us can be repaid.",
+                            in.getLender().equals(me) && in.getBorrower().equals(borrower));
+                    require.using("The IOU must be reduced by exactly the amount repaid.",
+                            ((IOUState) output).getValue() == in.getValue() - repayment);
+                    return null;
+                });
+            }
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            // The Settler sends the amount repaid before the transaction.
+            final int repayment = otherPartyFlow.receive(Integer.class).unwrap(amount -> {
+                if (amount <= 0) {
+                    throw new FlowException("A partial repayment must be positive.");
+                }
+                return amount;
+            });
+            return subFlow(new SignSettleTxFlow(otherPartyFlow, repayment, SignTransactionFlow.Companion.tracker()));
+        }
+    }
+
+
+    /* --------------------- Netter Flow ------------------------------------------------------------------------- */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Netter extends FlowLogic<List<SecureHash>> {
+
+        private static final Step QUERYING_CHUNK = new Step("Retrieving the next chunk of IOUs with the counterparty.");
+        private static final Step GENERATING_NET_TRANSACTION = new Step("Generating net transaction for the chunk.");
+        private static final Step VERIFYING_NET_TRANSACTION = new Step("Verifying net contract constraints.");
+        private static final Step SIGNING_NET_TRANSACTION = new Step("Signing net transaction with our private key.");
+        private static final Step GATHERING_NET_SIGS = new Step("Gathering the counterparty's signature.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+        private static final Step FINALISING_NET_TRANSACTION = new Step("Obtaining notary signature and recording net transaction.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+        // The progress tracker checkpoints each stage of the flow and outputs the specified messages when each
+        // checkpoint is reached in the code. See the 'progressTracker.currentStep' expressions within the call()
+        // function.
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                QUERYING_CHUNK,
+                GENERATING_NET_TRANSACTION,
+                VERIFYING_NET_TRANSACTION,
+                SIGNING_NET_TRANSACTION,
+                GATHERING_NET_SIGS,
+                FINALISING_NET_TRANSACTION
+        );
+        private final Party counterparty;
+        private final int chunkSize;
+
+        /**
+         * @param counterparty the party whose IOUs with us are netted.
+         * @param chunkSize    the maximum number of IOUs consumed by each net transaction; at least two.
+         */
+        public Netter(Party counterparty, int chunkSize) {
+            this.counterparty = counterparty;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        /**
+         * Only IOUs falling due at the same time can be netted, so the IOUs between the two parties are netted one
+         * maturity at a time. Within a maturity, the first page of unconsumed IOUs is netted repeatedly until at most
+         * one remains. Each round's net IOU keeps the maturity and is picked up again by a later round, so the pair
+         * ends with a single net IOU (or none) per maturity while no transaction ever has more than [chunkSize] inputs.
+         * <p>
+         * Each chunk is reserved before it is netted, like the IOU consumed by [Destroyer] or [Settler], so the flows
+         * fail fast rather than at the notary when they race for the same IOUs. IOUs reserved by another flow are left
+         * out of the chunk.
+         *
+         * @return the ids of the net transactions, in the order they were recorded.
+         */
+        @Suspendable
+        @Override
+        public List<SecureHash> call() throws FlowException {
+            if (chunkSize < 2) {
+                throw new FlowException("The netting chunk size must be at least two.");
+            }
+            final Party me = getOurIdentity();
+            if (me.equals(counterparty)) {
+                throw new FlowException("Cannot net IOUs with ourselves.");
+            }
+            final QueryCriteria pairCriteria = pairCriteria(me, counterparty);
+            final PageSpecification chunk = new PageSpecification(1, chunkSize);
+            final FlowSession counterpartySession = initiateFlow(counterparty);
+            final List<SecureHash> netTransactions = new ArrayList<>();
+
+            for (Instant maturity : maturities(pairCriteria)) {
+                final QueryCriteria chunkCriteria = pairCriteria.and(maturityCriteria(maturity));
+                while (true) {
+                    progressTracker.setCurrentStep(QUERYING_CHUNK);
+                    List<StateAndRef<IOUState>> inputs = getServiceHub().getVaultService().queryBy(IOUState.class, chunkCriteria, chunk).getStates();
+                    if (inputs.size() < 2) {
+                        break;
+                    }
+                    // Fails if another flow reserved one of the IOUs since the query.
+                    getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(),
+                            NonEmptySet.copyOf(inputs.stream().map(StateAndRef::getRef).collect(Collectors.toList())));
+                    // Tell the counterparty another net transaction is coming.
+                    counterpartySession.send(true);
+
+                    progressTracker.setCurrentStep(GENERATING_NET_TRANSACTION);
+                    final Party notary = inputs.get(0).getState().getNotary();
+                    long net = 0;
+                    for (StateAndRef<IOUState> input : inputs) {
+                        if (!input.getState().getNotary().equals(notary)) {
+                            throw new FlowException("Cannot net IOUs held by different notaries.");
+                        }
+                        IOUState iou = input.getState().getData();
+                        net += iou.getLender().equals(me) ? iou.getValue() : -iou.getValue();
+                    }
+                    if (Math.abs(net) > Integer.MAX_VALUE) {
+                        throw new FlowException("The net position exceeds the maximum IOU value.");
+                    }
+
+                    final Command<IOUContract.Commands.Net> txCommand = new Command<>(
+                            new IOUContract.Commands.Net(),
+                            ImmutableList.of(me.getOwningKey(), counterparty.getOwningKey()));
+                    final Instant issuedAt = getServiceHub().getClock().instant();
+                    final TransactionBuilder txBuilder = new TransactionBuilder(notary)
+                            .addCommand(txCommand)
+                            .setTimeWindow(TimeWindow.withTolerance(issuedAt, ISSUANCE_TOLERANCE));
+                    for (StateAndRef<IOUState> input : inputs) {
+                        txBuilder.addInputState(input);
+                    }
+                    if (net != 0) {
+                        Party lender = net > 0 ? me : counterparty;
+                        Party borrower = net > 0 ? counterparty : me;
+                        IOUState netIOU = new IOUState((int) Math.abs(net), lender, borrower,
+                                issuedAt, maturity, new UniqueIdentifier());
+                        txBuilder.addOutputState(netIOU, IOU_CONTRACT_ID);
+                    }
+
+                    progressTracker.setCurrentStep(VERIFYING_NET_TRANSACTION);
+                    txBuilder.verify(getServiceHub());
+
+                    progressTracker.setCurrentStep(SIGNING_NET_TRANSACTION);
+                    final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+
+                    progressTracker.setCurrentStep(GATHERING_NET_SIGS);
+                    final SignedTransaction fullySignedTx = subFlow(
+                            new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(counterpartySession), CollectSignaturesFlow.Companion.tracker()));
+
+                    progressTracker.setCurrentStep(FINALISING_NET_TRANSACTION);
+                    netTransactions.add(subFlow(new FinalityFlow(fullySignedTx)).getId());
+                }
+            }
+
+            // Release the counterparty's acceptor.
+            counterpartySession.send(false);
+            return netTransactions;
+        }
+
+        /**
+         * The distinct maturities of the IOUs matching the criteria, including null for open-ended IOUs. They are read
+         * with a single aggregate query grouped on the indexed maturity column, rather than by loading the IOUs.
+         */
+        private List<Instant> maturities(QueryCriteria criteria) throws FlowException {
+            final QueryCriteria byMaturity;
+            try {
+                byMaturity = new QueryCriteria.VaultCustomQueryCriteria(Builder.sum(
+                        IOUSchemaV2.PersistentIOU.class.getDeclaredField("value"),
+                        ImmutableList.of(IOUSchemaV2.PersistentIOU.class.getDeclaredField("maturity"))));
+            } catch (NoSuchFieldException e) {
+                throw new FlowException(e);
+            }
+            // Each group is returned as its sum followed by its maturity.
+            final List<Object> groups = getServiceHub().getVaultService().queryBy(IOUState.class, criteria.and(byMaturity)).getOtherResults();
+            final List<Instant> maturities = new ArrayList<>(groups.size() / 2);
+            for (int i = 1; i < groups.size(); i += 2) {
+                maturities.add((Instant) groups.get(i));
+            }
+            return maturities;
+        }
+
+        /**
+         * Selects the IOUs falling due at the given time, or the open-ended IOUs if it is null.
+         */
+        private static QueryCriteria maturityCriteria(Instant maturity) throws FlowException {
+            try {
+                final Field field = IOUSchemaV2.PersistentIOU.class.getDeclaredField("maturity");
+                return new QueryCriteria.VaultCustomQueryCriteria(maturity == null ? Builder.isNull(field) : Builder.equal(field, maturity));
+            } catch (NoSuchFieldException e) {
+                throw new FlowException(e);
+            }
+        }
+
+        /**
+         * Selects the unconsumed IOUs running in either direction between the two parties that no flow has reserved.
+         */
+        private static QueryCriteria pairCriteria(Party me, Party counterparty) throws FlowException {
+            try {
+                final List<String> names = ImmutableList.of(me.getName().toString(), counterparty.getName().toString());
+                final QueryCriteria lenderCriteria = new QueryCriteria.VaultCustomQueryCriteria(
+                        Builder.in(IOUSchemaV2.PersistentIOU.class.getDeclaredField("lender"), names));
+                final QueryCriteria borrowerCriteria = new QueryCriteria.VaultCustomQueryCriteria(
+                        Builder.in(IOUSchemaV2.PersistentIOU.class.getDeclaredField("borrower"), names));
+                return new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED, null, null, null,
+                        new QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.UNLOCKED_ONLY, ImmutableList.of()), null)
+                        .and(lenderCriteria).and(borrowerCriteria);
+            } catch (NoSuchFieldException e) {
+                throw new FlowException(e);
+            }
         }
     }
 
+    /* --------------------- Net Acceptor Flow ------------------------------------------------------------------ */
+    @InitiatedBy(Netter.class) //this flow is called by netter
+    public static class NetAcceptor extends FlowLogic<Void> {
+
+        private final FlowSession otherPartyFlow;
+
+        public NetAcceptor(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        private static class SignNetTxFlow extends SignTransactionFlow {
+            private SignNetTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                super(otherPartyFlow, progressTracker);
+            }
+
+            /**
+             * Only signs netting of IOUs between us and the counterparty. The contract checks the net IOU itself. The
+             * inputs have been resolved by the time this runs, so they can be loaded from the transaction.
+             */
+            @Override
+            protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                final Party me = getOurIdentity();
+                final Party counterparty = getOtherSideSession().getCounterparty();
+                final LedgerTransaction ltx;
+                try {
+                    ltx = stx.toLedgerTransaction(getServiceHub(), false);
+                } catch (GeneralSecurityException e) {
+                    throw new FlowException(e);
+                }
+                requireThat(require -> {
+                    require.using("This must be an IOU net transaction.",
+                            ltx.getCommands().size() == 1
+                                    && ltx.getCommands().get(0).getValue() instanceof IOUContract.Commands.Net);
+                    for (ContractState state : Iterables.concat(ltx.getInputStates(), ltx.getOutputStates())) {
+                        require.using("This must be an IOU transaction.", state instanceof IOUState);
+                        IOUState iou = (IOUState) state;
+                        require.using("Only IOUs between us and the counterparty may be netted.",
+                                (iou.getLender().equals(me) && iou.getBorrower().equals(counterparty))
+                                        || (iou.getLender().equals(counterparty) && iou.getBorrower().equals(me)));
+                    }
+                    return null;
+                });
+            }
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            // The netter announces each chunk before sending it for signing, and sends false once it is done.
+            while (otherPartyFlow.receive(Boolean.class).unwrap(more -> more)) {
+                subFlow(new SignNetTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+            }
+            return null;
+        }
+    }
+
+    /* --------------------- Consuming an IOU under contention ------------------------------------------------------ */
+
+    // How far the notary's clock may be from an IOU's issuance time when it notarises the issuance.
+    private static final Duration ISSUANCE_TOLERANCE = Duration.ofSeconds(30);
 
+    // The first version of the Initiator and Acceptor to exchange a trace context.
+    private static final int TRACED_FLOW_VERSION = 2;
+
+    /**
+     * Thrown when notarisation fails for a transient reason. Nothing was consumed, so the caller may start the flow
+     * again later.
+     */
+    public static class NotaryUnavailableException extends FlowException {
+        public NotaryUnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Thrown when the IOU exists but another flow has reserved it. That flow may yet fail and release it, so the
+     * caller may start the flow again later.
+     */
+    public static class IOUReservedException extends FlowException {
+        public IOUReservedException(UniqueIdentifier linearId) {
+            super(String.format("IOUState with linearId %s is reserved by another flow.", linearId));
+        }
+    }
+
+    /**
+     * Finds the unconsumed IOU with the given linear ID and soft-locks it to the calling flow. The lock is released
+     * when the flow ends, whether or not it consumed the IOU.
+     */
+    private static StateAndRef<IOUState> reserveUnconsumed(FlowLogic<?> flow, UniqueIdentifier linearId) throws FlowException {
+        return reserve(flow, findUnlocked(flow, linearId));
+    }
+
+    /**
+     * Finds the unconsumed IOU with the given linear ID, if no flow has reserved it. A flow checks the IOU between
+     * this and [reserve], so that a request it refuses does not lock the IOU for as long as the flow runs.
+     * <p>
+     * Only unlocked IOUs are queried, so a flow racing another for the same IOU fails here with an
+     * [IOUReservedException], before it has signed anything or contacted the notary, rather than with a notary
+     * conflict at the end. An id the node has never seen, or whose IOU is consumed, is usually rejected by the
+     * [LinearIdFilterService] without querying at all.
+     */
+    private static StateAndRef<IOUState> findUnlocked(FlowLogic<?> flow, UniqueIdentifier linearId) throws FlowException {
+        if (!flow.getServiceHub().cordaService(LinearIdFilterService.class).mightBeUnconsumed(linearId)) {
+            throw new FlowException(String.format("IOUState with linearId %s not found.", linearId));
+        }
+        final QueryCriteria unconsumed = new QueryCriteria.LinearStateQueryCriteria(
+                null,
+                ImmutableList.of(linearId),
+                Vault.StateStatus.UNCONSUMED,
+                null);
+        final QueryCriteria queryCriteria = unconsumed
+                .and(new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED, null, null, null,
+                        new QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.UNLOCKED_ONLY, ImmutableList.of()), null));
+        final List<StateAndRef<IOUState>> iouStates = flow.getServiceHub().getVaultService().queryBy(IOUState.class, queryCriteria).getStates();
+        if (iouStates.size() != 1) {
+            // Only on failure, tell a reserved IOU from a missing one, since only the former is worth retrying.
+            if (!flow.getServiceHub().getVaultService().queryBy(IOUState.class, unconsumed).getStates().isEmpty()) {
+                throw new IOUReservedException(linearId);
+            }
+            throw new FlowException(String.format("IOUState with linearId %s not found.", linearId));
+        }
+        return iouStates.get(0);
+    }
+
+    /**
+     * Soft-locks an IOU found by [findUnlocked] to the calling flow. Fails if another flow has reserved it since.
+     */
+    private static StateAndRef<IOUState> reserve(FlowLogic<?> flow, StateAndRef<IOUState> iou) throws FlowException {
+        flow.getServiceHub().getVaultService().softLockReserve(flow.getRunId().getUuid(), NonEmptySet.of(iou.getRef()));
+        return iou;
+    }
+
+    /**
+     * Runs [FinalityFlow], telling a transient notary error apart from a permanent one. A flow cannot wait out a
+     * struggling notary in Corda 3, and retrying at once would only add to its load, so a transient error ends the flow
+     * with a [NotaryUnavailableException] and the caller decides when to try again. A conflict is permanent: another
+     * transaction has consumed the input, so this one can never be notarised.
+     */
+    @Suspendable
+    private static SignedTransaction finalise(FlowLogic<?> flow, SignedTransaction signedTx) throws FlowException {
+        try {
+            return flow.subFlow(new FinalityFlow(signedTx));
+        } catch (NotaryException e) {
+            if (e.getError() instanceof NotaryError.Conflict) {
+                throw new FlowException("The IOU was consumed by another transaction before this one was notarised.", e);
+            }
+            if (e.getError() instanceof NotaryError.General) {
+                throw new NotaryUnavailableException(String.format("Notarisation failed: %s", e.getError()), e);
+            }
+            throw e;
+        }
+    }
 }
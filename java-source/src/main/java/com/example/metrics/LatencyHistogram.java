@@ -0,0 +1,106 @@
+package com.example.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, fixed-size histogram of durations in nanoseconds.
+ * <p>
+ * Buckets are log-linear: each power of two is split into 32 sub-buckets, so any recorded value is reported within
+ * about 3% of its true value whatever its magnitude. Recording is a handful of atomic increments and never allocates,
+ * so it can sit on hot paths; reading walks the 2048 buckets.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sumNanos() {
+        return sum.sum();
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * The smallest bucket bound at or below which the given fraction of the recorded values fall.
+     *
+     * @param quantile between 0 and 1, for example 0.99 for the 99th percentile.
+     */
+    public long percentileNanos(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * The number of recorded values no greater than the given bound, to bucket precision. Used to render cumulative
+     * histogram buckets.
+     */
+    public long countAtOrBelow(long nanos) {
+        final int last = indexOf(Math.max(0, nanos));
+        long seen = 0;
+        for (int i = 0; i <= last; i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+
+    public double percentileMillis(double quantile) {
+        return percentileNanos(quantile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent << SUB_BUCKET_BITS) | mantissa;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index >>> SUB_BUCKET_BITS;
+        final long mantissa = index & (SUB_BUCKETS - 1);
+        final long lower = (SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms, rendered in the Prometheus text exposition format.
+ * <p>
+ * Looking up a metric takes a map lookup, so callers on hot paths look their metrics up once and keep the returned
+ * [LongAdder] or [LatencyHistogram]. Recording on those is a few striped or atomic increments and does not allocate.
+ * Each metric may carry a single label.
+ */
+public class MetricsRegistry {
+    // Bucket bounds, in seconds, used when rendering latency histograms.
+    private static final double[] LATENCY_BOUNDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    private enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    private static final class Family {
+        private final String help;
+        private final Type type;
+        private final ConcurrentMap<String, Object> series = new ConcurrentSkipListMap<>();
+
+        private Family(String help, Type type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * The counters kept for one flow type.
+     */
+    public static final class FlowMetrics {
+        private final LongAdder started;
+        private final LongAdder completed;
+        private final LongAdder failed;
+        private final LongAdder inFlight;
+        private final LatencyHistogram duration;
+
+        private FlowMetrics(MetricsRegistry registry, String flow) {
+            this.started = registry.counter("example_flows_started_total", "Flows started through the API.", "flow", flow);
+            this.completed = registry.counter("example_flows_completed_total", "Flows that completed successfully.", "flow", flow);
+            this.failed = registry.counter("example_flows_failed_total", "Flows that failed or could not be started.", "flow", flow);
+            this.inFlight = new LongAdder();
+            registry.gauge("example_flows_in_flight", "Flows started through the API that have not yet finished.", "flow", flow, inFlight::sum);
+            this.duration = registry.histogram("example_flow_duration_seconds", "Time from starting a flow to its result.", "flow", flow);
+        }
+
+        /**
+         * Counts a flow as started and returns its start time, to be passed to [finished].
+         */
+        public long started() {
+            started.increment();
+            inFlight.increment();
+            return System.nanoTime();
+        }
+
+        public void finished(long startNanos, boolean succeeded) {
+            inFlight.decrement();
+            (succeeded ? completed : failed).increment();
+            duration.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, FlowMetrics> flows = new ConcurrentHashMap<>();
+
+    public LongAdder counter(String name, String help, String label, String value) {
+        return (LongAdder) family(name, help, Type.COUNTER).series.computeIfAbsent(labels(label, value), key -> new LongAdder());
+    }
+
+    public void gauge(String name, String help, String label, String value, LongSupplier supplier) {
+        family(name, help, Type.GAUGE).series.put(labels(label, value), supplier);
+    }
+
+    public LatencyHistogram histogram(String name, String help, String label, String value) {
+        return (LatencyHistogram) family(name, help, Type.HISTOGRAM).series.computeIfAbsent(labels(label, value), key -> new LatencyHistogram());
+    }
+
+    public FlowMetrics flow(String flowName) {
+        return flows.computeIfAbsent(flowName, name -> new FlowMetrics(this, name));
+    }
+
+    /**
+     * Renders every metric in the Prometheus text format, version 0.0.4.
+     */
+    public String toPrometheusText() {
+        final StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            final String name = entry.getKey();
+            final Family family = entry.getValue();
+            text.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            text.append("# TYPE ").append(name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                final String labels = series.getKey();
+                switch (family.type) {
+                    case COUNTER:
+                        sample(text, name, labels, ((LongAdder) series.getValue()).sum());
+                        break;
+                    case GAUGE:
+                        sample(text, name, labels, ((LongSupplier) series.getValue()).getAsLong());
+                        break;
+                    case HISTOGRAM:
+                        appendHistogram(text, name, labels, (LatencyHistogram) series.getValue());
+                        break;
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private Family family(String name, String help, Type type) {
+        final Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type.name().toLowerCase());
+        }
+        return family;
+    }
+
+    private static void appendHistogram(StringBuilder text, String name, String labels, LatencyHistogram histogram) {
+        // Read the count first so that no bucket can exceed it while values are still being recorded.
+        final long count = histogram.count();
+        final String prefix = labels.isEmpty() ? "" : labels.substring(1, labels.length() - 1) + ",";
+        for (double bound : LATENCY_BOUNDS) {
+            final long below = Math.min(count, histogram.countAtOrBelow((long) (bound * 1e9)));
+            sample(text, name + "_bucket", "{" + prefix + "le=\"" + bound + "\"}", below);
+        }
+        sample(text, name + "_bucket", "{" + prefix + "le=\"+Inf\"}", count);
+        text.append(name).append("_sum").append(labels).append(' ').append(histogram.sumNanos() / 1e9).append('\n');
+        sample(text, name + "_count", labels, count);
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, long value) {
+        text.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static String labels(String label, String value) {
+        if (label == null) {
+            return "";
+        }
+        return "{" + label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"}";
+    }
+}
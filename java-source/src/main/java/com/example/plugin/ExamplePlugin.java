@@ -1,21 +1,37 @@
 package com.example.plugin;
 
 import com.example.api.ExampleApi;
+import com.example.api.ResponseMetricsInterceptor;
+import com.example.client.RPCConnectionPool;
+import com.example.metrics.MetricsRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.utilities.NetworkHostAndPort;
 import net.corda.webserver.services.WebServerPluginRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
 public class ExamplePlugin implements WebServerPluginRegistry {
+    static private final Logger logger = LoggerFactory.getLogger(ExamplePlugin.class);
+
+    // Shared by the API and the interceptor, and served at /api/example/metrics.
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    // The mapper the webserver serialises responses with, so that the API's warm-up primes the same serialisers.
+    private volatile ObjectMapper jsonMapper;
+
     /**
      * A list of classes that expose web APIs.
      */
-    private final List<Function<CordaRPCOps, ?>> webApis = ImmutableList.of(ExampleApi::new);
+    private final List<Function<CordaRPCOps, ?>> webApis = ImmutableList.of(
+            rpcOps -> new ExampleApi(pooledOrShared(rpcOps), metrics, () -> jsonMapper),
+            rpcOps -> new ResponseMetricsInterceptor(metrics));
 
     /**
      * A list of directories in the resources directory that will be served by Jetty under /web.
@@ -27,5 +43,31 @@ public class ExamplePlugin implements WebServerPluginRegistry {
 
     @Override public List<Function<CordaRPCOps, ?>> getWebApis() { return webApis; }
     @Override public Map<String, String> getStaticServeDirs() { return staticServeDirs; }
-    @Override public void customizeJSONSerialization(ObjectMapper objectMapper) { }
-}
\ No newline at end of file
+    @Override public void customizeJSONSerialization(ObjectMapper objectMapper) { jsonMapper = objectMapper; }
+
+    /**
+     * By default the API shares the webserver's single RPC connection. Setting 'example.rpc.pool.size' above one,
+     * together with 'example.rpc.pool.address', 'example.rpc.pool.user' and 'example.rpc.pool.password', gives it a
+     * pool of its own connections instead.
+     */
+    private static CordaRPCOps pooledOrShared(CordaRPCOps shared) {
+        final int size = Integer.getInteger("example.rpc.pool.size", 1);
+        final String address = System.getProperty("example.rpc.pool.address");
+        if (size <= 1) {
+            return shared;
+        }
+        if (address == null) {
+            logger.warn("example.rpc.pool.size is {} but example.rpc.pool.address is not set; using the shared RPC connection", size);
+            return shared;
+        }
+        final RPCConnectionPool pool = new RPCConnectionPool(
+                NetworkHostAndPort.parse(address),
+                System.getProperty("example.rpc.pool.user", "user1"),
+                System.getProperty("example.rpc.pool.password", "test"),
+                size,
+                RPCConnectionPool.Strategy.valueOf(System.getProperty("example.rpc.pool.strategy", "LEAST_LOADED")),
+                Long.getLong("example.rpc.pool.healthCheckMillis", 5_000L));
+        logger.info("Using a pool of {} RPC connections to {}", size, address);
+        return pool.proxy();
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.policy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.identity.CordaX500Name;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The rules a borrower applies before signing IOUs issued to it: which lenders it accepts IOUs from, the largest IOU
+ * it accepts from each, and a cap on its total outstanding debt to each.
+ * <p>
+ * A policy is immutable and holds everything it needs in memory, so checking an IOU is a few map lookups. It is read
+ * from JSON such as:
+ * <pre>
+ * {
+ *   "defaultMaxValue": 100,
+ *   "defaultMaxExposure": 1000,
+ *   "allowedLenders": ["O=PartyA,L=London,C=GB", "O=PartyB,L=New York,C=US"],
+ *   "lenders": {
+ *     "O=PartyA,L=London,C=GB": { "maxValue": 500, "maxExposure": 5000 }
+ *   }
+ * }
+ * </pre>
+ * Every field is optional. An absent or empty 'allowedLenders' accepts any lender, and an absent exposure cap means
+ * no cap. The default policy only limits each IOU to 100, as the Acceptor always has.
+ */
+public final class AcceptancePolicy {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final AcceptancePolicy DEFAULTS = new AcceptancePolicy(100, Long.MAX_VALUE, ImmutableSet.of(), ImmutableMap.of());
+
+    /**
+     * The limits applied to one lender.
+     */
+    public static final class Limits {
+        private final int maxValue;
+        private final long maxExposure;
+
+        public Limits(int maxValue, long maxExposure) {
+            this.maxValue = maxValue;
+            this.maxExposure = maxExposure;
+        }
+
+        public int getMaxValue() {
+            return maxValue;
+        }
+
+        public long getMaxExposure() {
+            return maxExposure;
+        }
+    }
+
+    private final Limits defaultLimits;
+    private final Set<CordaX500Name> allowedLenders;
+    private final Map<CordaX500Name, Limits> lenderLimits;
+
+    public AcceptancePolicy(int defaultMaxValue, long defaultMaxExposure, Set<CordaX500Name> allowedLenders, Map<CordaX500Name, Limits> lenderLimits) {
+        this.defaultLimits = new Limits(defaultMaxValue, defaultMaxExposure);
+        this.allowedLenders = ImmutableSet.copyOf(allowedLenders);
+        this.lenderLimits = ImmutableMap.copyOf(lenderLimits);
+    }
+
+    public static AcceptancePolicy defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Checks IOUs from one lender against this policy.
+     *
+     * @param largestValue    the largest value among the IOUs being signed.
+     * @param totalValue      the total value of the IOUs being signed.
+     * @param currentExposure the total value of the IOUs from the lender already outstanding.
+     * @return why the IOUs are rejected, or null if they are accepted.
+     */
+    public String check(CordaX500Name lender, int largestValue, long totalValue, long currentExposure) {
+        if (!allowedLenders.isEmpty() && !allowedLenders.contains(lender)) {
+            return "I won't accept IOUs from " + lender + ".";
+        }
+        final Limits limits = limitsFor(lender);
+        if (largestValue > limits.maxValue) {
+            return "I won't accept IOUs with a value over " + limits.maxValue + ".";
+        }
+        if (totalValue > limits.maxExposure - currentExposure) {
+            return "I won't owe " + lender + " more than " + limits.maxExposure + " in total.";
+        }
+        return null;
+    }
+
+    public Limits limitsFor(CordaX500Name lender) {
+        final Limits limits = lenderLimits.get(lender);
+        return limits == null ? defaultLimits : limits;
+    }
+
+    /**
+     * Reads a policy from JSON in the format described above.
+     *
+     * @throws IllegalArgumentException if the JSON is malformed or a name or limit is invalid.
+     */
+    public static AcceptancePolicy parse(InputStream json) throws IOException {
+        final JsonNode root = mapper.readTree(json);
+        if (root == null || !root.isObject()) {
+            throw new IllegalArgumentException("An acceptance policy must be a JSON object.");
+        }
+        final int defaultMaxValue = intField(root, "defaultMaxValue", DEFAULTS.defaultLimits.maxValue);
+        final long defaultMaxExposure = longField(root, "defaultMaxExposure", DEFAULTS.defaultLimits.maxExposure);
+
+        final ImmutableSet.Builder<CordaX500Name> allowed = ImmutableSet.builder();
+        for (JsonNode name : root.path("allowedLenders")) {
+            allowed.add(CordaX500Name.parse(name.asText()));
+        }
+
+        final ImmutableMap.Builder<CordaX500Name, Limits> limits = ImmutableMap.builder();
+        final Iterator<Map.Entry<String, JsonNode>> lenders = root.path("lenders").fields();
+        while (lenders.hasNext()) {
+            final Map.Entry<String, JsonNode> lender = lenders.next();
+            limits.put(CordaX500Name.parse(lender.getKey()), new Limits(
+                    intField(lender.getValue(), "maxValue", defaultMaxValue),
+                    longField(lender.getValue(), "maxExposure", defaultMaxExposure)));
+        }
+        return new AcceptancePolicy(defaultMaxValue, defaultMaxExposure, allowed.build(), limits.build());
+    }
+
+    private static int intField(JsonNode node, String field, int fallback) {
+        final JsonNode value = node.get(field);
+        if (value == null || value.isNull()) {
+            return fallback;
+        }
+        if (!value.canConvertToInt() || value.asInt() < 0) {
+            throw new IllegalArgumentException("'" + field + "' must be a non-negative integer.");
+        }
+        return value.asInt();
+    }
+
+    private static long longField(JsonNode node, String field, long fallback) {
+        final JsonNode value = node.get(field);
+        if (value == null || value.isNull()) {
+            return fallback;
+        }
+        if (!value.canConvertToLong() || value.asLong() < 0) {
+            throw new IllegalArgumentException("'" + field + "' must be a non-negative integer.");
+        }
+        return value.asLong();
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.policy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Holds the current [AcceptancePolicy], read from a local JSON file and re-read whenever the file changes.
+ * <p>
+ * Readers only ever see a complete policy: [current] returns the last one successfully loaded. A file that cannot be
+ * read or parsed is logged and ignored, keeping the previous policy, so a half-written edit never loosens or tightens
+ * the rules by accident. Without the file, the default policy applies.
+ */
+public class AcceptancePolicyStore {
+    private static final Logger logger = LoggerFactory.getLogger(AcceptancePolicyStore.class);
+
+    private final Path file;
+    private volatile AcceptancePolicy current = AcceptancePolicy.defaults();
+    // The modification time of the file when it was last loaded, or null if it did not exist.
+    private FileTime loadedModified;
+
+    public AcceptancePolicyStore(Path file) {
+        this.file = file;
+        reloadIfChanged();
+    }
+
+    public AcceptancePolicy current() {
+        return current;
+    }
+
+    /**
+     * Reloads the policy if the file has been created, changed or deleted since it was last loaded.
+     *
+     * @return whether a different policy is now in effect.
+     */
+    public synchronized boolean reloadIfChanged() {
+        final FileTime modified;
+        try {
+            modified = Files.exists(file) ? Files.getLastModifiedTime(file) : null;
+        } catch (IOException e) {
+            logger.warn("Cannot check acceptance policy {}: {}", file, e.getMessage());
+            return false;
+        }
+        if (modified == null ? loadedModified == null : modified.equals(loadedModified)) {
+            return false;
+        }
+        if (modified == null) {
+            logger.info("Acceptance policy {} removed, so the default policy applies", file);
+            loadedModified = null;
+            current = AcceptancePolicy.defaults();
+            return true;
+        }
+        try (InputStream json = Files.newInputStream(file)) {
+            current = AcceptancePolicy.parse(json);
+            logger.info("Loaded acceptance policy {}", file);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Cannot load acceptance policy {}, so the previous policy still applies: {}", file, e.getMessage());
+            return false;
+        } finally {
+            // Not retried until the file changes again, whether or not it could be parsed.
+            loadedModified = modified;
+        }
+    }
+}
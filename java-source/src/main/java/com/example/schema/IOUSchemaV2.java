@@ -0,0 +1,83 @@
+package com.example.schema;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * An IOUState schema which adds the issuance and maturity timestamps to [IOUSchemaV1].
+ * <p>
+ * Both timestamps are indexed so that time-range reports run as range scans over this table rather than joins into
+ * the vault metadata.
+ */
+public class IOUSchemaV2 extends MappedSchema {
+    public IOUSchemaV2() {
+        super(IOUSchema.class, 2, ImmutableList.of(PersistentIOU.class));
+    }
+
+    @Entity(name = "PersistentIOUV2")
+    @Table(name = "iou_states_v2", indexes = {
+            @Index(name = "iou_v2_issued_at_idx", columnList = "issued_at"),
+            @Index(name = "iou_v2_maturity_idx", columnList = "maturity"),
+            @Index(name = "iou_v2_lender_issued_at_idx", columnList = "lender,issued_at")
+    })
+    public static class PersistentIOU extends PersistentState {
+        @Column(name = "lender") private final String lender;
+        @Column(name = "borrower") private final String borrower;
+        @Column(name = "value") private final int value;
+        @Column(name = "issued_at") private final Instant issuedAt;
+        @Column(name = "maturity") private final Instant maturity;
+        @Column(name = "linear_id") private final UUID linearId;
+
+
+        public PersistentIOU(String lender, String borrower, int value, Instant issuedAt, Instant maturity, UUID linearId) {
+            this.lender = lender;
+            this.borrower = borrower;
+            this.value = value;
+            this.issuedAt = issuedAt;
+            this.maturity = maturity;
+            this.linearId = linearId;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentIOU() {
+            this.lender = null;
+            this.borrower = null;
+            this.value = 0;
+            this.issuedAt = null;
+            this.maturity = null;
+            this.linearId = null;
+        }
+
+        public String getLender() {
+            return lender;
+        }
+
+        public String getBorrower() {
+            return borrower;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        public Instant getIssuedAt() {
+            return issuedAt;
+        }
+
+        public Instant getMaturity() {
+            return maturity;
+        }
+
+        public UUID getId() {
+            return linearId;
+        }
+    }
+}
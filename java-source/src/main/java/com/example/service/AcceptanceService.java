@@ -0,0 +1,165 @@
+package com.example.service;
+
+import com.example.policy.AcceptancePolicyStore;
+import com.example.state.IOUState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether this node, as borrower, signs the IOUs a lender issues to it, according to the [AcceptancePolicy] in
+ * the file named by the 'example.policy.file' system property (by default 'acceptance-policy.json' in the node's
+ * directory). The file is checked for changes every 'example.policy.reloadSeconds' seconds (default 5).
+ * <p>
+ * Exposure caps need the total we already owe each lender. Rather than query the vault while signing, the service
+ * keeps those totals in memory: seeded once by [ExposureSnapshotFlow] when the node starts, from a vault feed whose
+ * snapshot and updates neither overlap nor leave a gap, and then maintained from the feed's updates. A decision is
+ * therefore a few map lookups. Until the seed has been loaded every IOU is rejected, because the totals would be too
+ * low. If the snapshot flow cannot be started or fails, the failure is logged and the flow is retried with backoff.
+ * <p>
+ * Only recorded IOUs count towards the exposure, so IOUs that are being signed concurrently are each checked against
+ * the same total and may together exceed a cap by up to one IOU each.
+ */
+@CordaService
+public class AcceptanceService extends SingletonSerializeAsToken {
+    private static final Logger logger = LoggerFactory.getLogger(AcceptanceService.class);
+
+    private static final long INITIAL_SEED_RETRY_SECONDS = 1;
+    private static final long MAX_SEED_RETRY_SECONDS = 60;
+
+    private final AppServiceHub serviceHub;
+    private final ScheduledExecutorService executor;
+
+    private final CordaX500Name me;
+    private final AcceptancePolicyStore policies;
+    // The unconsumed IOUs we owe, and their total value per lender. Written under the service's lock, read without it.
+    private final Map<StateRef, IOUState> owed = new HashMap<>();
+    private final ConcurrentMap<CordaX500Name, Long> exposure = new ConcurrentHashMap<>();
+    private volatile boolean seeded;
+
+    public AcceptanceService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.me = serviceHub.getMyInfo().getLegalIdentities().get(0).getName();
+        this.policies = new AcceptancePolicyStore(Paths.get(System.getProperty("example.policy.file", "acceptance-policy.json")));
+
+        final long reloadSeconds = Long.getLong("example.policy.reloadSeconds", 5L);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "acceptance-service");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(policies::reloadIfChanged, reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+
+        // Starting a flow waits for the flow framework, which is only started after the services, so it is done on
+        // the service's own thread rather than here.
+        executor.execute(() -> seed(INITIAL_SEED_RETRY_SECONDS));
+    }
+
+    /**
+     * Checks IOUs issued to us by the lender against the current policy and what we already owe the lender.
+     *
+     * @return why the IOUs are rejected, or null if they may be signed.
+     */
+    public String check(Party lender, List<IOUState> ious) {
+        if (!seeded) {
+            return "I can't accept IOUs until I know what I already owe.";
+        }
+        int largest = 0;
+        long total = 0;
+        for (IOUState iou : ious) {
+            largest = Math.max(largest, iou.getValue());
+            total += iou.getValue();
+        }
+        return policies.current().check(lender.getName(), largest, total, exposure.getOrDefault(lender.getName(), 0L));
+    }
+
+    public long exposureTo(CordaX500Name lender) {
+        return exposure.getOrDefault(lender, 0L);
+    }
+
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    /**
+     * Loads the IOUs we currently owe from the feed's snapshot and keeps the totals current from the feed's updates.
+     * Only the first feed is used. The snapshot was read before this is called, so the lock is only held while it is
+     * added up.
+     */
+    synchronized void follow(DataFeed<Vault.Page<IOUState>, Vault.Update<IOUState>> feed) {
+        if (seeded) {
+            return;
+        }
+        for (StateAndRef<IOUState> iou : feed.getSnapshot().getStates()) {
+            owe(iou.getRef(), iou.getState().getData());
+        }
+        feed.getUpdates().subscribe(this::apply);
+        seeded = true;
+        logger.info("Exposure seeded from {} outstanding IOUs", owed.size());
+    }
+
+    /**
+     * Starts the snapshot flow, and starts it again after a delay if it cannot be started or fails.
+     */
+    private void seed(long retrySeconds) {
+        if (seeded) {
+            return;
+        }
+        try {
+            serviceHub.startFlow(new ExposureSnapshotFlow()).getReturnValue().then(result -> {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    retrySeed(e.getCause(), retrySeconds);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            retrySeed(e, retrySeconds);
+        }
+    }
+
+    private void retrySeed(Throwable failure, long retrySeconds) {
+        logger.error("The exposure snapshot failed, so no IOU will be accepted; retrying in {} s", retrySeconds, failure);
+        executor.schedule(() -> seed(Math.min(retrySeconds * 2, MAX_SEED_RETRY_SECONDS)), retrySeconds, TimeUnit.SECONDS);
+    }
+
+    private synchronized void apply(Vault.Update<IOUState> update) {
+        for (StateAndRef<IOUState> consumed : update.getConsumed()) {
+            final IOUState repaid = owed.remove(consumed.getRef());
+            if (repaid != null) {
+                exposure.merge(repaid.getLender().getName(), -(long) repaid.getValue(), Long::sum);
+            }
+        }
+        for (StateAndRef<IOUState> produced : update.getProduced()) {
+            owe(produced.getRef(), produced.getState().getData());
+        }
+    }
+
+    private void owe(StateRef ref, IOUState iou) {
+        if (iou.getBorrower().getName().equals(me) && owed.putIfAbsent(ref, iou) == null) {
+            exposure.merge(iou.getLender().getName(), (long) iou.getValue(), Long::sum);
+        }
+    }
+}
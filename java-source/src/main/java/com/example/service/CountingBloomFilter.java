@@ -0,0 +1,98 @@
+package com.example.service;
+
+import java.util.UUID;
+
+/**
+ * A counting Bloom filter of UUIDs. Unlike a plain Bloom filter, it supports removal, so it can follow a set that
+ * shrinks as well as grows.
+ * <p>
+ * [mightContain] never returns false for a UUID that was added and not removed since, and returns true for a UUID
+ * that is absent with about the false-positive probability the filter was sized for. Each of the k positions of a
+ * UUID holds an 8-bit counter. A counter that reaches 255 stays there, because it can no longer tell how many UUIDs
+ * share it. That can only cause false positives.
+ * <p>
+ * Writers must be serialised by the caller. Readers need no lock: every write ends with a volatile write, and every
+ * read starts with a volatile read, so a reader sees at least every change completed before it started.
+ */
+public class CountingBloomFilter {
+    private static final int SATURATED = 0xFF;
+
+    private final byte[] counters;
+    private final int hashes;
+    private volatile long modifications;
+
+    /**
+     * @param expectedEntries   the number of UUIDs the filter is sized for.
+     * @param falsePositiveRate the target probability of a false positive at that size, between 0 and 1.
+     */
+    public CountingBloomFilter(int expectedEntries, double falsePositiveRate) {
+        if (expectedEntries <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("A Bloom filter needs a positive size and a false-positive rate between 0 and 1.");
+        }
+        final double ln2 = Math.log(2);
+        final long size = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.counters = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(64, size))];
+        this.hashes = Math.max(1, (int) Math.round((double) counters.length / expectedEntries * ln2));
+    }
+
+    public void add(UUID id) {
+        final long h1 = mix(id.getMostSignificantBits() ^ id.getLeastSignificantBits());
+        final long h2 = mix(id.getLeastSignificantBits() + 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            final int index = index(h1 + i * h2);
+            final int count = counters[index] & 0xFF;
+            if (count != SATURATED) {
+                counters[index] = (byte) (count + 1);
+            }
+        }
+        modifications++;
+    }
+
+    public void remove(UUID id) {
+        final long h1 = mix(id.getMostSignificantBits() ^ id.getLeastSignificantBits());
+        final long h2 = mix(id.getLeastSignificantBits() + 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            final int index = index(h1 + i * h2);
+            final int count = counters[index] & 0xFF;
+            if (count != SATURATED && count != 0) {
+                counters[index] = (byte) (count - 1);
+            }
+        }
+        modifications++;
+    }
+
+    public boolean mightContain(UUID id) {
+        // Besides short-cutting an empty filter, the volatile read orders the counter reads below after every
+        // completed add and remove.
+        if (modifications == 0) {
+            return false;
+        }
+        final long h1 = mix(id.getMostSignificantBits() ^ id.getLeastSignificantBits());
+        final long h2 = mix(id.getLeastSignificantBits() + 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            if (counters[index(h1 + i * h2)] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return counters.length;
+    }
+
+    public int hashCount() {
+        return hashes;
+    }
+
+    private int index(long hash) {
+        return (int) ((hash >>> 1) % counters.length);
+    }
+
+    // The finaliser of SplitMix64, which spreads every input bit over the whole output.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
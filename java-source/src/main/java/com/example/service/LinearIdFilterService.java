@@ -0,0 +1,84 @@
+package com.example.service;
+
+import com.example.state.IOUState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a [CountingBloomFilter] of the linearIds of the node's unconsumed IOUs, so that an unknown id can be rejected
+ * without a vault query. The filter is sized by the 'example.linearIdFilter.capacity' (default 1,000,000) and
+ * 'example.linearIdFilter.falsePositiveRate' (default 0.01) system properties.
+ * <p>
+ * The filter counts states, not ids: settling an IOU consumes one state and produces another with the same linearId,
+ * which leaves the id's count unchanged. A negative answer is certain. A positive answer still needs the vault query.
+ * <p>
+ * The filter is filled by [LinearIdSnapshotFlow] when the node starts, from a vault feed whose snapshot and updates
+ * neither overlap nor leave a gap. Until then [mightBeUnconsumed] answers true for every id, so callers fall back to
+ * querying the vault.
+ */
+@CordaService
+public class LinearIdFilterService extends SingletonSerializeAsToken {
+    private static final Logger logger = LoggerFactory.getLogger(LinearIdFilterService.class);
+
+    private final CountingBloomFilter filter = new CountingBloomFilter(
+            Integer.getInteger("example.linearIdFilter.capacity", 1_000_000),
+            Double.parseDouble(System.getProperty("example.linearIdFilter.falsePositiveRate", "0.01")));
+    private volatile boolean ready;
+
+    public LinearIdFilterService(AppServiceHub serviceHub) {
+        // Starting a flow waits for the flow framework, which is only started after the services.
+        final Thread starter = new Thread(() -> {
+            try {
+                serviceHub.startFlow(new LinearIdSnapshotFlow());
+            } catch (RuntimeException e) {
+                logger.warn("Cannot start the linearId snapshot, so ids will always be looked up in the vault: {}", e.getMessage());
+            }
+        }, "linear-id-filter-starter");
+        starter.setDaemon(true);
+        starter.start();
+    }
+
+    /**
+     * Whether the node may hold an unconsumed IOU with this linearId. False means it certainly does not.
+     */
+    public boolean mightBeUnconsumed(UniqueIdentifier linearId) {
+        return !ready || filter.mightContain(linearId.getId());
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Fills the filter from the feed's snapshot and keeps it current from the feed's updates. Only the first feed is
+     * used.
+     */
+    synchronized void follow(DataFeed<Vault.Page<IOUState>, Vault.Update<IOUState>> feed) {
+        if (ready) {
+            return;
+        }
+        for (StateAndRef<IOUState> iou : feed.getSnapshot().getStates()) {
+            filter.add(iou.getState().getData().getLinearId().getId());
+        }
+        feed.getUpdates().subscribe(this::apply);
+        ready = true;
+        logger.info("linearId filter ready with {} unconsumed IOUs, {} counters and {} hashes",
+                feed.getSnapshot().getStates().size(), filter.size(), filter.hashCount());
+    }
+
+    private synchronized void apply(Vault.Update<IOUState> update) {
+        for (StateAndRef<IOUState> produced : update.getProduced()) {
+            filter.add(produced.getState().getData().getLinearId().getId());
+        }
+        for (StateAndRef<IOUState> consumed : update.getConsumed()) {
+            filter.remove(consumed.getState().getData().getLinearId().getId());
+        }
+    }
+}
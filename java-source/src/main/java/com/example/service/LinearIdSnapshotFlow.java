@@ -0,0 +1,31 @@
+package com.example.service;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.state.IOUState;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.QueryCriteriaUtils;
+
+/**
+ * Hands the [LinearIdFilterService] a feed of the node's unconsumed IOUs. The service starts it when the node starts,
+ * because vault queries need the database transaction that a flow provides.
+ * <p>
+ * The snapshot is a single page holding every unconsumed IOU: a feed's updates only line up with its own snapshot, so
+ * reading further pages separately could miss a change made in between.
+ */
+@StartableByService
+public class LinearIdSnapshotFlow extends FlowLogic<Void> {
+    @Suspendable
+    @Override
+    public Void call() throws FlowException {
+        getServiceHub().cordaService(LinearIdFilterService.class).follow(getServiceHub().getVaultService().trackBy(
+                IOUState.class,
+                new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED),
+                new PageSpecification(QueryCriteriaUtils.DEFAULT_PAGE_NUM, QueryCriteriaUtils.MAX_PAGE_SIZE)));
+        return null;
+    }
+}
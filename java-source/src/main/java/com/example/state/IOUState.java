@@ -1,6 +1,7 @@
 package com.example.state;
 
 import com.example.schema.IOUSchemaV1;
+import com.example.schema.IOUSchemaV2;
 import com.google.common.collect.ImmutableList;
 import net.corda.core.contracts.LinearState;
 import net.corda.core.contracts.UniqueIdentifier;
@@ -9,7 +10,9 @@ import net.corda.core.identity.Party;
 import net.corda.core.schemas.MappedSchema;
 import net.corda.core.schemas.PersistentState;
 import net.corda.core.schemas.QueryableState;
+import net.corda.core.serialization.ConstructorForDeserialization;
 
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
 
@@ -22,20 +25,29 @@ public class IOUState implements LinearState, QueryableState {
     private final Integer value;
     private final Party lender;
     private final Party borrower;
+    private final Instant issuedAt;
+    private final Instant maturity;
     private final UniqueIdentifier linearId;
 
     /**
      * @param value    the value of the IOU.
      * @param lender   the party issuing the IOU.
      * @param borrower the party receiving and approving the IOU.
+     * @param issuedAt the time at which the IOU was issued.
+     * @param maturity the time at which the IOU falls due, or null if it is open-ended.
      */
+    @ConstructorForDeserialization
     public IOUState(Integer value,
                     Party lender,
                     Party borrower,
+                    Instant issuedAt,
+                    Instant maturity,
                     UniqueIdentifier linearId) {
         this.value = value;
         this.lender = lender;
         this.borrower = borrower;
+        this.issuedAt = issuedAt;
+        this.maturity = maturity;
         this.linearId = linearId;
     }
 
@@ -51,6 +63,21 @@ public class IOUState implements LinearState, QueryableState {
         return borrower;
     }
 
+    public Instant getIssuedAt() {
+        return issuedAt;
+    }
+
+    public Instant getMaturity() {
+        return maturity;
+    }
+
+    /**
+     * Returns a copy of this IOU with a different value, as produced by a partial repayment.
+     */
+    public IOUState withValue(Integer newValue) {
+        return new IOUState(newValue, lender, borrower, issuedAt, maturity, linearId);
+    }
+
     @Override
     public UniqueIdentifier getLinearId() {
         return linearId;
@@ -69,6 +96,14 @@ public class IOUState implements LinearState, QueryableState {
                     this.borrower.getName().toString(),
                     this.value,
                     this.linearId.getId());
+        } else if (schema instanceof IOUSchemaV2) {
+            return new IOUSchemaV2.PersistentIOU(
+                    this.lender.getName().toString(),
+                    this.borrower.getName().toString(),
+                    this.value,
+                    this.issuedAt,
+                    this.maturity,
+                    this.linearId.getId());
         } else {
             throw new IllegalArgumentException("Unrecognised schema $schema");
         }
@@ -76,11 +111,12 @@ public class IOUState implements LinearState, QueryableState {
 
     @Override
     public Iterable<MappedSchema> supportedSchemas() {
-        return ImmutableList.of(new IOUSchemaV1());
+        return ImmutableList.of(new IOUSchemaV1(), new IOUSchemaV2());
     }
 
     @Override
     public String toString() {
-        return String.format("IOUState(value=%s, lender=%s, borrower=%s, linearId=%s)", value, lender, borrower, linearId);
+        return String.format("IOUState(value=%s, lender=%s, borrower=%s, issuedAt=%s, maturity=%s, linearId=%s)",
+                value, lender, borrower, issuedAt, maturity, linearId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package com.example.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends finished spans, one JSON object per line, to a file in the directory named by the 'example.trace.dir'
+ * system property. Each JVM (node or webserver) writes its own file. The files of all the nodes are then joined on
+ * traceId to get the cross-node breakdown of a transaction. Without the property, spans are dropped.
+ * <p>
+ * Spans are exported from flow threads, so [export] only queues the span. A daemon thread writes whatever has queued
+ * and flushes once per batch. Should the writer fall behind by 'example.trace.queueSize' spans (10000 by default),
+ * further spans are dropped rather than holding up the flows, and the number dropped is logged.
+ */
+public final class SpanExporter {
+    private static final Logger logger = LoggerFactory.getLogger(SpanExporter.class);
+
+    private static final int QUEUE_SIZE = Integer.getInteger("example.trace.queueSize", 10_000);
+
+    private static final BlockingQueue<String> queue = new LinkedBlockingQueue<>(QUEUE_SIZE);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final BufferedWriter writer = open();
+
+    static {
+        if (writer != null) {
+            final Thread thread = new Thread(SpanExporter::drain, "example-span-exporter");
+            thread.setDaemon(true);
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> write(new ArrayList<>()), "example-span-exporter-shutdown"));
+        }
+    }
+
+    private SpanExporter() {
+    }
+
+    public static boolean isEnabled() {
+        return writer != null;
+    }
+
+    /**
+     * Queues a finished span for export. Times are in microseconds since the epoch, so that spans recorded on different
+     * machines can be lined up, given reasonably synchronised clocks.
+     */
+    public static void export(TraceContext trace, String spanId, String name, String party, long startMicros, long endMicros) {
+        if (writer == null) {
+            return;
+        }
+        final String line = "{\"traceId\":\"" + trace.getTraceId() + "\"" +
+                ",\"spanId\":\"" + spanId + "\"" +
+                ",\"parentSpanId\":" + (trace.getParentSpanId() == null ? "null" : "\"" + trace.getParentSpanId() + "\"") +
+                ",\"name\":\"" + escape(name) + "\"" +
+                ",\"party\":\"" + escape(party) + "\"" +
+                ",\"startMicros\":" + startMicros +
+                ",\"durationMicros\":" + (endMicros - startMicros) + "}";
+        if (!queue.offer(line)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public static long nowMicros() {
+        final Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+    }
+
+    private static void drain() {
+        while (true) {
+            final List<String> lines = new ArrayList<>();
+            try {
+                lines.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            write(lines);
+        }
+    }
+
+    /**
+     * Writes the given lines and everything queued behind them, then flushes. Synchronised only against the shutdown
+     * hook, which writes whatever the exporter thread has left.
+     */
+    private static synchronized void write(List<String> lines) {
+        queue.drainTo(lines);
+        final long droppedSinceLast = dropped.getAndSet(0);
+        if (droppedSinceLast > 0) {
+            logger.warn("Dropped {} trace spans because the exporter fell behind.", droppedSinceLast);
+        }
+        if (lines.isEmpty()) {
+            return;
+        }
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+            writer.flush();
+        } catch (IOException e) {
+            logger.warn("Cannot export {} trace spans: {}", lines.size(), e.getMessage());
+        }
+    }
+
+    private static BufferedWriter open() {
+        final String directory = System.getProperty("example.trace.dir");
+        if (directory == null) {
+            return null;
+        }
+        final Path file = Paths.get(directory, "spans-" + ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9.-]", "_") + ".jsonl");
+        try {
+            Files.createDirectories(file.getParent());
+            logger.info("Exporting trace spans to {}", file);
+            return Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.warn("Cannot open {} for trace spans, so spans will not be exported: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.trace;
+
+/**
+ * Records the stages of one flow as consecutive spans under a common flow span.
+ * <p>
+ * Call [stage] as each stage begins and [finish] at the end. Each call closes the previous stage's span. The tracer
+ * holds only strings and longs, so it is checkpointed along with the flow and survives suspension.
+ */
+public class StageTracer {
+    private final TraceContext trace;
+    private final String flowSpanId = TraceContext.newId();
+    private final String flowName;
+    private final String party;
+    private final long flowStartMicros = SpanExporter.nowMicros();
+    private String stage;
+    private String stageSpanId;
+    private long stageStartMicros;
+
+    public StageTracer(TraceContext trace, String flowName, String party) {
+        this.trace = trace;
+        this.flowName = flowName;
+        this.party = party;
+    }
+
+    /**
+     * The context to hand to other parties, so that their spans hang off this flow's span.
+     */
+    public TraceContext context() {
+        return trace.withParent(flowSpanId);
+    }
+
+    public void stage(String name) {
+        final long now = SpanExporter.nowMicros();
+        endStage(now);
+        stage = name;
+        stageSpanId = TraceContext.newId();
+        stageStartMicros = now;
+    }
+
+    public void finish() {
+        final long now = SpanExporter.nowMicros();
+        endStage(now);
+        SpanExporter.export(trace, flowSpanId, flowName, party, flowStartMicros, now);
+    }
+
+    private void endStage(long now) {
+        if (stage != null) {
+            SpanExporter.export(context(), stageSpanId, flowName + "." + stage, party, stageStartMicros, now);
+            stage = null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.trace;
+
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Identifies a trace and the span that new spans hang off. It is small and immutable so that it can be passed into a
+ * flow's constructor and sent across a flow session.
+ */
+@CordaSerializable
+public class TraceContext {
+    private final String traceId;
+    private final String parentSpanId;
+
+    public TraceContext(String traceId, String parentSpanId) {
+        this.traceId = traceId;
+        this.parentSpanId = parentSpanId;
+    }
+
+    /**
+     * Starts a new trace whose root span has the given id.
+     */
+    public static TraceContext newTrace(String rootSpanId) {
+        return new TraceContext(newId(), rootSpanId);
+    }
+
+    public static String newId() {
+        return Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    /**
+     * The same trace, with spans hanging off the given span instead.
+     */
+    public TraceContext withParent(String spanId) {
+        return new TraceContext(traceId, spanId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TraceContext)) return false;
+        final TraceContext that = (TraceContext) o;
+        return traceId.equals(that.traceId) && Objects.equals(parentSpanId, that.parentSpanId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(traceId, parentSpanId);
+    }
+
+    @Override
+    public String toString() {
+        return "TraceContext(traceId=" + traceId + ", parentSpanId=" + parentSpanId + ")";
+    }
+}
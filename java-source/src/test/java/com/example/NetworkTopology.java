@@ -0,0 +1,132 @@
+package com.example;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.utilities.NetworkHostAndPort;
+import net.corda.node.services.config.VerifierType;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.node.NotarySpec;
+import net.corda.testing.node.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A generated test network of N parties and M notaries on one machine.
+ * <p>
+ * Node i (notaries first, then parties) gets the block of four ports starting at basePort + 4 * i: P2P, RPC, RPC
+ * admin and web, in that order. Notaries are named Notary1..NotaryM and parties Party1..PartyN. The
+ * 'deployScaleNodes' Gradle task uses the same scheme, so a client can reach a party's RPC or web port from either
+ * deployment without further configuration.
+ */
+public class NetworkTopology {
+    private static final List<String[]> LOCATIONS = ImmutableList.of(
+            new String[]{"London", "GB"},
+            new String[]{"New York", "US"},
+            new String[]{"Paris", "FR"});
+
+    public static class NodeSpec {
+        private final CordaX500Name name;
+        private final int basePort;
+
+        private NodeSpec(CordaX500Name name, int basePort) {
+            this.name = name;
+            this.basePort = basePort;
+        }
+
+        public CordaX500Name getName() {
+            return name;
+        }
+
+        public NetworkHostAndPort getP2pAddress() {
+            return new NetworkHostAndPort("localhost", basePort);
+        }
+
+        public NetworkHostAndPort getRpcAddress() {
+            return new NetworkHostAndPort("localhost", basePort + 1);
+        }
+
+        public NetworkHostAndPort getRpcAdminAddress() {
+            return new NetworkHostAndPort("localhost", basePort + 2);
+        }
+
+        public NetworkHostAndPort getWebAddress() {
+            return new NetworkHostAndPort("localhost", basePort + 3);
+        }
+    }
+
+    private final List<NodeSpec> notaries;
+    private final List<NodeSpec> parties;
+    private final User rpcUser;
+
+    public NetworkTopology(int partyCount, int notaryCount, int basePort, User rpcUser) {
+        if (partyCount < 2 || notaryCount < 1) {
+            throw new IllegalArgumentException("A topology needs at least two parties and one notary.");
+        }
+        this.rpcUser = rpcUser;
+        this.notaries = nodes("Notary", 0, notaryCount, basePort);
+        this.parties = nodes("Party", notaryCount, partyCount, basePort);
+    }
+
+    /**
+     * The topology described by the topology.parties, topology.notaries, topology.basePort, topology.rpcUser and
+     * topology.rpcPassword system properties, defaulting to three parties and one notary from port 10006.
+     */
+    public static NetworkTopology fromSystemProperties() {
+        return new NetworkTopology(
+                Integer.getInteger("topology.parties", 3),
+                Integer.getInteger("topology.notaries", 1),
+                Integer.getInteger("topology.basePort", 10006),
+                new User(System.getProperty("topology.rpcUser", "user1"), System.getProperty("topology.rpcPassword", "test"), ImmutableSet.of("ALL")));
+    }
+
+    public List<NodeSpec> getNotaries() {
+        return notaries;
+    }
+
+    public List<NodeSpec> getParties() {
+        return parties;
+    }
+
+    public User getRpcUser() {
+        return rpcUser;
+    }
+
+    /**
+     * The notaries, for [DriverParameters.withNotarySpecs].
+     */
+    public List<NotarySpec> notarySpecs() {
+        final List<NotarySpec> specs = new ArrayList<>();
+        for (NodeSpec notary : notaries) {
+            specs.add(new NotarySpec(notary.getName(), true, ImmutableList.of(rpcUser), VerifierType.InMemory, null));
+        }
+        return specs;
+    }
+
+    /**
+     * The driver parameters of a party, pinning its RPC and web ports to the topology's. The driver still picks the
+     * P2P port itself.
+     */
+    public NodeParameters nodeParameters(NodeSpec party) {
+        final Map<String, Object> overrides = ImmutableMap.of(
+                "rpcSettings.address", party.getRpcAddress().toString(),
+                "rpcSettings.adminAddress", party.getRpcAdminAddress().toString(),
+                "webAddress", party.getWebAddress().toString());
+        return new NodeParameters()
+                .withProvidedName(party.getName())
+                .withCustomOverrides(overrides)
+                .withRpcUsers(ImmutableList.of(rpcUser));
+    }
+
+    private static List<NodeSpec> nodes(String prefix, int firstIndex, int count, int basePort) {
+        final List<NodeSpec> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String[] location = LOCATIONS.get(i % LOCATIONS.size());
+            nodes.add(new NodeSpec(new CordaX500Name(prefix + (i + 1), location[0], location[1]), basePort + 4 * (firstIndex + i)));
+        }
+        return nodes;
+    }
+}
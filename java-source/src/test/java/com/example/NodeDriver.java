@@ -10,6 +10,7 @@ import net.corda.testing.driver.NodeHandle;
 import net.corda.testing.driver.NodeParameters;
 import net.corda.testing.node.User;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static net.corda.testing.driver.Driver.driver;
@@ -20,6 +21,11 @@ import static net.corda.testing.driver.Driver.driver;
  */
 public class NodeDriver {
     public static void main(String[] args) {
+        // Setting topology.parties switches to a generated network; see NetworkTopology for the other settings.
+        if (System.getProperty("topology.parties") != null) {
+            startTopology(NetworkTopology.fromSystemProperties());
+            return;
+        }
         final User user = new User("user1", "test", ImmutableSet.of("ALL"));
         driver(new DriverParameters().withWaitForAllNodesToFinish(true), dsl -> {
                     List<CordaFuture<NodeHandle>> nodeFutures = ImmutableList.of(
@@ -50,4 +56,27 @@ public class NodeDriver {
                 }
         );
     }
+
+    private static void startTopology(NetworkTopology topology) {
+        driver(new DriverParameters()
+                .withWaitForAllNodesToFinish(true)
+                .withNotarySpecs(topology.notarySpecs()), dsl -> {
+                    final List<CordaFuture<NodeHandle>> nodeFutures = new ArrayList<>();
+                    for (NetworkTopology.NodeSpec party : topology.getParties()) {
+                        nodeFutures.add(dsl.startNode(topology.nodeParameters(party)));
+                    }
+
+                    try {
+                        for (CordaFuture<NodeHandle> nodeFuture : nodeFutures) {
+                            dsl.startWebserver(nodeFuture.get());
+                        }
+                    } catch (Throwable e) {
+                        System.err.println("Encountered exception in node startup: " + e.getMessage());
+                        e.printStackTrace();
+                    }
+
+                    return null;
+                }
+        );
+    }
 }
@@ -0,0 +1,215 @@
+package com.example;
+
+import com.example.flow.ExampleFlow;
+import com.example.metrics.LatencyHistogram;
+import com.example.state.IOUState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs IOU traffic between the parties of a running [NetworkTopology] and measures flow throughput and vault query
+ * latency, so that runs over networks of different sizes can be compared.
+ * <p>
+ * Start the network with NodeDriver or 'gradlew deployScaleNodes' using the same topology.* settings, then run
+ * 'gradlew runTrafficMatrix'. Each party starts traffic.flowsPerParty IOUs, keeping traffic.inFlightPerParty in flight.
+ * Lenders pick borrowers by the traffic.pattern matrix:
+ * <pre>
+ *   uniform  every other party equally
+ *   hotspot  Party1 with probability traffic.hotspotFraction, otherwise uniform
+ *   ring     the next party only
+ * </pre>
+ * While the flows run, one thread per party keeps querying its vault. One JSON line per run is appended to
+ * build/reports/traffic/results.jsonl.
+ */
+public class TrafficMatrixRunner {
+    private final NetworkTopology topology = NetworkTopology.fromSystemProperties();
+    private final String pattern = System.getProperty("traffic.pattern", "uniform");
+    private final double hotspotFraction = Double.parseDouble(System.getProperty("traffic.hotspotFraction", "0.5"));
+    private final int flowsPerParty = Integer.getInteger("traffic.flowsPerParty", 50);
+    private final int inFlightPerParty = Integer.getInteger("traffic.inFlightPerParty", 4);
+    private final int queryPageSize = Integer.getInteger("traffic.queryPageSize", 200);
+
+    private final LatencyHistogram flowLatency = new LatencyHistogram();
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+    private final LongAdder flowErrors = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        new TrafficMatrixRunner().run();
+    }
+
+    private void run() throws InterruptedException, IOException {
+        final List<NetworkTopology.NodeSpec> specs = topology.getParties();
+        final List<CordaRPCConnection> connections = new ArrayList<>();
+        final List<Party> parties = new ArrayList<>();
+        try {
+            for (NetworkTopology.NodeSpec spec : specs) {
+                final CordaRPCConnection connection = new CordaRPCClient(spec.getRpcAddress())
+                        .start(topology.getRpcUser().getUsername(), topology.getRpcUser().getPassword());
+                connections.add(connection);
+                parties.add(connection.getProxy().nodeInfo().getLegalIdentities().get(0));
+            }
+            final double[][] matrix = matrix(parties.size());
+
+            final ExecutorService lenders = Executors.newFixedThreadPool(parties.size());
+            final ExecutorService queriers = Executors.newFixedThreadPool(parties.size());
+            final AtomicInteger lendersRunning = new AtomicInteger(parties.size());
+            final long start = System.nanoTime();
+            for (int i = 0; i < parties.size(); i++) {
+                final int lender = i;
+                final CordaRPCOps ops = connections.get(i).getProxy();
+                lenders.execute(() -> {
+                    try {
+                        lend(ops, parties, matrix[lender]);
+                    } finally {
+                        lendersRunning.decrementAndGet();
+                    }
+                });
+                queriers.execute(() -> query(ops, lendersRunning));
+            }
+            lenders.shutdown();
+            queriers.shutdown();
+            lenders.awaitTermination(1, TimeUnit.HOURS);
+            queriers.awaitTermination(1, TimeUnit.MINUTES);
+            final double seconds = (System.nanoTime() - start) / 1e9;
+
+            report(seconds);
+        } finally {
+            for (CordaRPCConnection connection : connections) {
+                connection.notifyServerAndClose();
+            }
+        }
+    }
+
+    /**
+     * Starts the party's share of the flows, keeping at most [inFlightPerParty] running at once.
+     */
+    private void lend(CordaRPCOps ops, List<Party> parties, double[] weights) {
+        final Semaphore inFlight = new Semaphore(inFlightPerParty);
+        final Random random = new Random();
+        try {
+            for (int flow = 0; flow < flowsPerParty; flow++) {
+                inFlight.acquire();
+                final Party borrower = parties.get(pick(weights, random.nextDouble()));
+                final long started = System.nanoTime();
+                try {
+                    ops.startFlowDynamic(ExampleFlow.Initiator.class, 1 + random.nextInt(100), borrower)
+                            .getReturnValue().toCompletableFuture()
+                            .whenComplete((stx, error) -> {
+                                if (error == null) {
+                                    flowLatency.record(System.nanoTime() - started);
+                                } else {
+                                    flowErrors.increment();
+                                }
+                                inFlight.release();
+                            });
+                } catch (RuntimeException e) {
+                    flowErrors.increment();
+                    inFlight.release();
+                }
+            }
+            inFlight.acquire(inFlightPerParty);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void query(CordaRPCOps ops, AtomicInteger lendersRunning) {
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        final PageSpecification page = new PageSpecification(1, queryPageSize);
+        while (lendersRunning.get() > 0) {
+            final long started = System.nanoTime();
+            try {
+                ops.vaultQueryByWithPagingSpec(IOUState.class, criteria, page);
+                queryLatency.record(System.nanoTime() - started);
+            } catch (RuntimeException e) {
+                // Query failures show up as a drop in the query count rather than failing the run.
+            }
+        }
+    }
+
+    /**
+     * Row i holds the probability of party i lending to each party; the diagonal is always zero.
+     */
+    private double[][] matrix(int size) {
+        final double[][] matrix = new double[size][size];
+        for (int lender = 0; lender < size; lender++) {
+            for (int borrower = 0; borrower < size; borrower++) {
+                if (borrower == lender) {
+                    continue;
+                }
+                switch (pattern) {
+                    case "uniform":
+                        matrix[lender][borrower] = 1.0 / (size - 1);
+                        break;
+                    case "hotspot":
+                        final double uniform = 1.0 / (size - 1);
+                        matrix[lender][borrower] = lender == 0
+                                ? uniform
+                                : (1 - hotspotFraction) * uniform + (borrower == 0 ? hotspotFraction : 0);
+                        break;
+                    case "ring":
+                        matrix[lender][borrower] = borrower == (lender + 1) % size ? 1 : 0;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown traffic pattern " + pattern);
+                }
+            }
+        }
+        return matrix;
+    }
+
+    private static int pick(double[] weights, double draw) {
+        double cumulative = 0;
+        int last = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] > 0) {
+                cumulative += weights[i];
+                last = i;
+                if (draw < cumulative) {
+                    return i;
+                }
+            }
+        }
+        return last;
+    }
+
+    private void report(double seconds) throws IOException {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("parties", topology.getParties().size());
+        result.put("notaries", topology.getNotaries().size());
+        result.put("pattern", pattern);
+        result.put("flows", flowLatency.count());
+        result.put("flowErrors", flowErrors.sum());
+        result.put("seconds", seconds);
+        result.put("flowsPerSecond", flowLatency.count() / seconds);
+        result.put("flowP50Millis", flowLatency.percentileMillis(0.50));
+        result.put("flowP99Millis", flowLatency.percentileMillis(0.99));
+        result.put("vaultQueries", queryLatency.count());
+        result.put("vaultQueryP50Millis", queryLatency.percentileMillis(0.50));
+        result.put("vaultQueryP99Millis", queryLatency.percentileMillis(0.99));
+
+        final String line = new ObjectMapper().writeValueAsString(result);
+        System.out.println(line);
+        final File resultsFile = new File("build/reports/traffic/results.jsonl");
+        resultsFile.getParentFile().mkdirs();
+        try (Writer writer = new FileWriter(resultsFile, true)) {
+            writer.write(line);
+            writer.write(System.lineSeparator());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.api;
+
+import com.example.flow.ExampleFlow;
+import com.example.metrics.MetricsRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableList;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static net.corda.testing.driver.Driver.driver;
+
+/**
+ * Measures how long the API's first requests take in a fresh JVM, so that the latency with and without the warm-up can
+ * be compared.
+ * <p>
+ * It starts two nodes in process, issues one IOU between them so that the vault queries return a state to serialise,
+ * and then constructs an [ExampleApi] against the first node's RPC connection. With the warm-up enabled it waits for
+ * /ready before sending anything. It then calls each endpoint twice, timing the call and the Jackson serialisation of
+ * its result as the webserver would, and records the first and second latency of each.
+ * <p>
+ * The warm-up is switched by 'example.warmup.enabled', and only one setting can be measured per JVM, because the code
+ * warmed by one run would stay warm for the next. Run 'gradlew firstRequestReport' to measure both in turn. The
+ * results are written to the file given as the first argument. If the results of the other setting are given as the
+ * second argument, the two are printed side by side.
+ */
+public class FirstRequestLatencyReport {
+    private static final TestIdentity bankA = new TestIdentity(new CordaX500Name("BankA", "", "GB"));
+    private static final TestIdentity bankB = new TestIdentity(new CordaX500Name("BankB", "", "US"));
+
+    private static final long READY_TIMEOUT_MILLIS = Long.getLong("warmup.readyTimeoutMillis", 120_000L);
+
+    public static void main(String[] args) throws Exception {
+        final File resultsFile = new File(args.length > 0 ? args[0] : "build/reports/warmup/first-request.json");
+        final File otherResultsFile = args.length > 1 ? new File(args[1]) : null;
+        final Map<String, Object> results = new LinkedHashMap<>();
+
+        driver(new DriverParameters().withIsDebug(false).withStartNodesInProcess(true), dsl -> {
+            List<CordaFuture<NodeHandle>> handleFutures = ImmutableList.of(
+                    dsl.startNode(new NodeParameters().withProvidedName(bankA.getName())),
+                    dsl.startNode(new NodeParameters().withProvidedName(bankB.getName()))
+            );
+
+            try {
+                final CordaRPCOps rpc = handleFutures.get(0).get().getRpc();
+                handleFutures.get(1).get();
+                final Party borrower = rpc.wellKnownPartyFromX500Name(bankB.getName());
+                rpc.startFlowDynamic(ExampleFlow.Initiator.class, 10, borrower).getReturnValue().get();
+                measure(rpc, results);
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during measurement", e);
+            }
+
+            return null;
+        });
+
+        final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        resultsFile.getAbsoluteFile().getParentFile().mkdirs();
+        mapper.writeValue(resultsFile, results);
+        System.out.println(mapper.writeValueAsString(results));
+        System.out.println("Results written to " + resultsFile.getAbsolutePath());
+        if (otherResultsFile != null && otherResultsFile.exists()) {
+            compare(mapper.readValue(otherResultsFile, Map.class), results);
+        }
+    }
+
+    private static void measure(CordaRPCOps rpc, Map<String, Object> results) throws Exception {
+        final ObjectMapper jsonMapper = JacksonSupport.createDefaultMapper(rpc);
+        final long constructStart = System.nanoTime();
+        final ExampleApi api = new ExampleApi(rpc, new MetricsRegistry(), () -> jsonMapper);
+        final long constructMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - constructStart);
+
+        final long deadline = System.currentTimeMillis() + READY_TIMEOUT_MILLIS;
+        while (api.getReady().getStatus() != 200) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("The API did not warm up within " + READY_TIMEOUT_MILLIS + "ms.");
+            }
+            Thread.sleep(10);
+        }
+        final long readyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - constructStart);
+
+        final Map<String, Callable<Object>> requests = new LinkedHashMap<>();
+        requests.put("peers", api::getPeers);
+        requests.put("ious", api::getIOUs);
+        requests.put("my-ious", () -> api.getMyIOUs().getEntity());
+        requests.put("create-iou", () -> api.createIOU(1, bankB.getName(), null, null).getEntity());
+
+        final Map<String, Object> endpoints = new LinkedHashMap<>();
+        for (Map.Entry<String, Callable<Object>> request : requests.entrySet()) {
+            final Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("firstMillis", time(request.getValue(), jsonMapper));
+            latency.put("secondMillis", time(request.getValue(), jsonMapper));
+            endpoints.put(request.getKey(), latency);
+        }
+
+        results.put("warmUpEnabled", Boolean.parseBoolean(System.getProperty("example.warmup.enabled", "true")));
+        results.put("constructMillis", constructMillis);
+        results.put("readyMillis", readyMillis);
+        results.put("warmUp", api.getReady().getEntity());
+        results.put("endpoints", endpoints);
+    }
+
+    private static double time(Callable<Object> request, ObjectMapper jsonMapper) throws Exception {
+        final long start = System.nanoTime();
+        jsonMapper.writeValueAsBytes(request.call());
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void compare(Map<String, Object> other, Map<String, Object> these) {
+        final boolean theseWarm = (Boolean) these.get("warmUpEnabled");
+        final Map<String, Map<String, Number>> without = (Map<String, Map<String, Number>>) (theseWarm ? other : these).get("endpoints");
+        final Map<String, Map<String, Number>> with = (Map<String, Map<String, Number>>) (theseWarm ? these : other).get("endpoints");
+        System.out.printf("%-12s %22s %22s%n", "endpoint", "first ms, no warm-up", "first ms, warm-up");
+        for (String endpoint : with.keySet()) {
+            System.out.printf("%-12s %22.1f %22.1f%n", endpoint,
+                    without.get(endpoint).get("firstMillis").doubleValue(), with.get(endpoint).get("firstMillis").doubleValue());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.api;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class IdempotencyCacheTests {
+    private final AtomicInteger starts = new AtomicInteger();
+    private final CompletableFuture<String> work = new CompletableFuture<>();
+
+    private CompletableFuture<String> start() {
+        starts.incrementAndGet();
+        return work;
+    }
+
+    private CompletableFuture<String> startAndFinish() {
+        starts.incrementAndGet();
+        return CompletableFuture.completedFuture("tx");
+    }
+
+    @Test
+    public void retryAttachesToWorkInFlightAndThenSeesItsResult() throws Exception {
+        IdempotencyCache<String, String> cache = new IdempotencyCache<>(10, 60);
+        IdempotencyCache.Lookup<String, String> first = cache.getOrStart("key", "request", "trace-1", this::start);
+        IdempotencyCache.Lookup<String, String> retry = cache.getOrStart("key", "request", "trace-2", this::start);
+        assertFalse(first.isReplayed());
+        assertTrue(retry.isReplayed());
+        assertFalse(retry.getResult().isDone());
+
+        work.complete("tx");
+        assertEquals("tx", retry.getResult().get());
+        assertEquals("tx", cache.getOrStart("key", "request", "trace-3", this::start).getResult().get());
+        assertEquals(1, starts.get());
+    }
+
+    @Test
+    public void replayCarriesTheContextOfTheFirstRequest() {
+        IdempotencyCache<String, String> cache = new IdempotencyCache<>(10, 60);
+        assertEquals("trace-1", cache.getOrStart("key", "request", "trace-1", this::start).getContext());
+        assertEquals("trace-1", cache.getOrStart("key", "request", "trace-2", this::start).getContext());
+    }
+
+    @Test(expected = IdempotencyCache.KeyReusedException.class)
+    public void keyCannotBeReusedForADifferentRequest() {
+        IdempotencyCache<String, String> cache = new IdempotencyCache<>(10, 60);
+        cache.getOrStart("key", "request", "trace-1", this::start);
+        cache.getOrStart("key", "other request", "trace-2", this::start);
+    }
+
+    @Test
+    public void keyIsReleasedWhenTheWorkCannotBeStarted() {
+        IdempotencyCache<String, String> cache = new IdempotencyCache<>(10, 60);
+        try {
+            cache.getOrStart("key", "request", "trace-1", () -> {
+                throw new IllegalStateException("RPC connection lost");
+            });
+            fail("The start failure should propagate.");
+        } catch (IllegalStateException expected) {
+            // Expected.
+        }
+        assertFalse(cache.getOrStart("key", "request", "trace-2", this::start).isReplayed());
+        assertEquals(1, starts.get());
+    }
+
+    @Test
+    public void keyIsReleasedWhenTheWorkFails() {
+        IdempotencyCache<String, String> cache = new IdempotencyCache<>(10, 60);
+        IdempotencyCache.Lookup<String, String> first = cache.getOrStart("key", "request", "trace-1", this::start);
+        IdempotencyCache.Lookup<String, String> waiting = cache.getOrStart("key", "request", "trace-2", this::start);
+
+        work.completeExceptionally(new IllegalStateException("Notary unavailable"));
+        for (IdempotencyCache.Lookup<String, String> lookup : Arrays.asList(first, waiting)) {
+            try {
+                lookup.getResult().get();
+                fail("Requests waiting on the failed work should see its failure.");
+            } catch (InterruptedException | ExecutionException expected) {
+                // Expected.
+            }
+        }
+        assertEquals(0, cache.size());
+        assertFalse(cache.getOrStart("key", "request", "trace-3", this::startAndFinish).isReplayed());
+        assertEquals(2, starts.get());
+    }
+
+    @Test
+    public void oldestKeysAreEvictedBeyondTheBound() {
+        IdempotencyCache<String, String> cache = new IdempotencyCache<>(2, 60);
+        cache.getOrStart("a", "request", "trace-a", this::startAndFinish);
+        cache.getOrStart("b", "request", "trace-b", this::startAndFinish);
+        cache.getOrStart("c", "request", "trace-c", this::startAndFinish);
+        assertEquals(2, cache.size());
+        assertFalse(cache.getOrStart("a", "request", "trace-a", this::startAndFinish).isReplayed());
+    }
+
+    @Test
+    public void keysInFlightAreNeverEvicted() {
+        IdempotencyCache<String, String> cache = new IdempotencyCache<>(1, 60);
+        cache.getOrStart("a", "request", "trace-a", this::start);
+        cache.getOrStart("b", "request", "trace-b", this::startAndFinish);
+        cache.getOrStart("c", "request", "trace-c", this::startAndFinish);
+        assertTrue(cache.getOrStart("a", "request", "trace-a", this::start).isReplayed());
+        assertEquals(3, starts.get());
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.api;
+
+import com.example.schema.IOUSchemaV1;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.QueryCriteria;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class VaultQueryMonitorTests {
+    private static QueryCriteria lenderCriteria(String lender) throws NoSuchFieldException {
+        Field lenderField = IOUSchemaV1.PersistentIOU.class.getDeclaredField("lender");
+        return new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL)
+                .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(lenderField, lender)));
+    }
+
+    @Test
+    public void fingerprintIgnoresLiteralValues() throws NoSuchFieldException {
+        assertEquals(
+                VaultQueryMonitor.fingerprint(lenderCriteria("O=PartyA,L=London,C=GB")),
+                VaultQueryMonitor.fingerprint(lenderCriteria("O=PartyB,L=New York,C=US")));
+    }
+
+    @Test
+    public void fingerprintDistinguishesQueryShapes() throws NoSuchFieldException {
+        String fingerprint = VaultQueryMonitor.fingerprint(lenderCriteria("O=PartyA,L=London,C=GB"));
+        assertEquals("and(vault(ALL), custom(UNCONSUMED, PersistentIOU.lender EQUAL ?))", fingerprint);
+        assertNotEquals(fingerprint, VaultQueryMonitor.fingerprint(new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL)));
+    }
+}
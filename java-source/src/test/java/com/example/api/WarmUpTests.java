@@ -0,0 +1,53 @@
+package com.example.api;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class WarmUpTests {
+    @Test
+    public void runsEachStepInOrderForEveryIterationAndThenReportsReady() {
+        final List<String> calls = new ArrayList<>();
+        final WarmUp warmUp = new WarmUp(2)
+                .step("first", () -> calls.add("first"))
+                .step("second", () -> calls.add("second"));
+        assertFalse(warmUp.isReady());
+        assertEquals(false, warmUp.report().get("ready"));
+
+        warmUp.run();
+        assertTrue(warmUp.isReady());
+        assertEquals(Arrays.asList("first", "first", "second", "second"), calls);
+        final Map<?, ?> steps = (Map<?, ?>) warmUp.report().get("steps");
+        assertEquals(2, steps.size());
+        assertTrue((Double) ((Map<?, ?>) steps.get("first")).get("firstMillis") >= 0);
+    }
+
+    @Test
+    public void failedStepIsReportedAndDoesNotStopTheOthers() {
+        final List<String> calls = new ArrayList<>();
+        final WarmUp warmUp = new WarmUp(3)
+                .step("broken", () -> {
+                    throw new IllegalStateException("no RPC");
+                })
+                .step("working", () -> calls.add("working"));
+
+        warmUp.run();
+        assertTrue(warmUp.isReady());
+        assertEquals(3, calls.size());
+        final Map<?, ?> broken = (Map<?, ?>) ((Map<?, ?>) warmUp.report().get("steps")).get("broken");
+        assertEquals("no RPC", broken.get("error"));
+        assertEquals(-1.0, (Double) broken.get("firstMillis"), 0.0);
+    }
+
+    @Test
+    public void skippedWarmUpIsReadyAtOnce() {
+        final WarmUp warmUp = new WarmUp(1).step("never", () -> fail("A skipped warm-up must not run its steps."));
+        warmUp.skip();
+        assertTrue(warmUp.isReady());
+    }
+}
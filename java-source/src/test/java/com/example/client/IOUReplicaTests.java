@@ -0,0 +1,146 @@
+package com.example.client;
+
+import com.example.state.IOUState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.testing.core.TestIdentity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.example.contract.IOUContract.IOU_CONTRACT_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IOUReplicaTests {
+    static private final TestIdentity megaCorp = new TestIdentity(new CordaX500Name("MegaCorp", "London", "GB"));
+    static private final TestIdentity miniCorp = new TestIdentity(new CordaX500Name("MiniCorp", "London", "GB"));
+    static private final TestIdentity notary = new TestIdentity(new CordaX500Name("Notary", "London", "GB"));
+    static private final Instant issuedAt = Instant.parse("2018-01-01T00:00:00Z");
+
+    private IOUReplica replica;
+
+    @Before
+    public void setup() throws SQLException {
+        replica = new IOUReplica("jdbc:h2:mem:" + UUID.randomUUID());
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        replica.close();
+    }
+
+    private static StateAndRef<IOUState> iou(int value, Party lender, Party borrower, Instant issuedAt, UniqueIdentifier linearId) {
+        final IOUState state = new IOUState(value, lender, borrower, issuedAt, null, linearId);
+        return new StateAndRef<>(new TransactionState<>(state, IOU_CONTRACT_ID, notary.getParty()),
+                new StateRef(SecureHash.randomSHA256(), 0));
+    }
+
+    private static StateAndRef<IOUState> iou(int value, Party lender, Party borrower) {
+        return iou(value, lender, borrower, issuedAt, new UniqueIdentifier());
+    }
+
+    private static String name(TestIdentity identity) {
+        return identity.getName().toString();
+    }
+
+    @Test
+    public void unconsumedIOUsAreServedByLenderAndBorrower() throws SQLException {
+        final StateAndRef<IOUState> lent = iou(10, megaCorp.getParty(), miniCorp.getParty());
+        final StateAndRef<IOUState> repaid = iou(20, megaCorp.getParty(), miniCorp.getParty());
+        final StateAndRef<IOUState> borrowed = iou(30, miniCorp.getParty(), megaCorp.getParty());
+        replica.accept(ImmutableList.of(
+                new IOUReplica.Change(lent, false),
+                new IOUReplica.Change(repaid, false),
+                new IOUReplica.Change(borrowed, false),
+                new IOUReplica.Change(repaid, true)));
+
+        final List<Map<String, Object>> byLender = replica.unconsumedByLender(name(megaCorp));
+        assertEquals(1, byLender.size());
+        assertEquals(10, byLender.get(0).get("value"));
+        assertEquals(lent.getRef().getTxhash().toString(), byLender.get(0).get("tx_hash"));
+
+        final List<Map<String, Object>> byBorrower = replica.unconsumedByBorrower(name(megaCorp));
+        assertEquals(1, byBorrower.size());
+        assertEquals(30, byBorrower.get(0).get("value"));
+    }
+
+    @Test
+    public void replayedChangesLeaveTheReplicaUnchanged() throws SQLException {
+        final StateAndRef<IOUState> state = iou(10, megaCorp.getParty(), miniCorp.getParty());
+        replica.accept(ImmutableList.of(new IOUReplica.Change(state, false)));
+        replica.accept(ImmutableList.of(new IOUReplica.Change(state, false)));
+
+        assertEquals(1, replica.byLinearId(state.getState().getData().getLinearId().getId()).size());
+    }
+
+    @Test
+    public void lateProductionDoesNotClearAnEarlierConsumption() throws SQLException {
+        final StateAndRef<IOUState> state = iou(10, megaCorp.getParty(), miniCorp.getParty());
+        replica.accept(ImmutableList.of(new IOUReplica.Change(state, true)));
+        replica.accept(ImmutableList.of(new IOUReplica.Change(state, false)));
+
+        final List<Map<String, Object>> versions = replica.byLinearId(state.getState().getData().getLinearId().getId());
+        assertEquals(1, versions.size());
+        assertEquals(true, versions.get(0).get("consumed"));
+        assertTrue(replica.unconsumedByLender(name(megaCorp)).isEmpty());
+    }
+
+    @Test
+    public void everyVersionOfAnIOUIsKept() throws SQLException {
+        final UniqueIdentifier linearId = new UniqueIdentifier();
+        final StateAndRef<IOUState> original = iou(10, megaCorp.getParty(), miniCorp.getParty(), issuedAt, linearId);
+        final StateAndRef<IOUState> settled = iou(4, megaCorp.getParty(), miniCorp.getParty(), issuedAt, linearId);
+        replica.accept(ImmutableList.of(
+                new IOUReplica.Change(original, false),
+                new IOUReplica.Change(original, true),
+                new IOUReplica.Change(settled, false)));
+
+        assertEquals(2, replica.byLinearId(linearId.getId()).size());
+        assertEquals(1, replica.unconsumedByLender(name(megaCorp)).size());
+    }
+
+    @Test
+    public void issuedBetweenIncludesTheStartAndExcludesTheEnd() throws SQLException {
+        final Instant later = issuedAt.plusSeconds(3600);
+        replica.accept(ImmutableList.of(
+                new IOUReplica.Change(iou(10, megaCorp.getParty(), miniCorp.getParty(), issuedAt, new UniqueIdentifier()), false),
+                new IOUReplica.Change(iou(20, megaCorp.getParty(), miniCorp.getParty(), later, new UniqueIdentifier()), false)));
+
+        final List<Map<String, Object>> issued = replica.issuedBetween(issuedAt, later);
+        assertEquals(1, issued.size());
+        assertEquals(10, issued.get(0).get("value"));
+    }
+
+    @Test
+    public void resetDropsEverythingReplicated() throws SQLException {
+        replica.accept(ImmutableList.of(new IOUReplica.Change(iou(10, megaCorp.getParty(), miniCorp.getParty()), false)));
+        replica.reset();
+
+        assertTrue(replica.unconsumedByLender(name(megaCorp)).isEmpty());
+    }
+
+    @Test
+    public void backlogCountsChangesReceivedButNotYetApplied() throws SQLException {
+        replica.received();
+        replica.received();
+        replica.accept(ImmutableList.of(new IOUReplica.Change(iou(10, megaCorp.getParty(), miniCorp.getParty()), false)));
+
+        final Map<String, Object> metrics = replica.metrics();
+        assertEquals(2L, metrics.get("received"));
+        assertEquals(1L, metrics.get("applied"));
+        assertEquals(1L, metrics.get("backlog"));
+    }
+}
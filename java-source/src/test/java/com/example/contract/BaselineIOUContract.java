@@ -0,0 +1,69 @@
+package com.example.contract;
+
+import com.example.state.IOUState;
+import net.corda.core.contracts.*;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.transactions.LedgerTransaction;
+
+import java.util.stream.Collectors;
+
+import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+/**
+ * The Create and Destroy verification of [IOUContract] as it stood before it was rewritten as a single pass, kept
+ * verbatim as the reference that [IOUContractPropertyTests] compares the current contract against. Do not change it to
+ * match the contract: the differences between the two are meant to show up in the tests.
+ */
+class BaselineIOUContract implements Contract {
+    @Override
+    public void verify(LedgerTransaction tx) {
+
+        //get the command issued - it has to be either create or destroy type
+        Command command = tx.getCommand(0);
+
+        if (command.getValue() instanceof IOUContract.Commands.Create) {
+            final CommandWithParties<IOUContract.Commands.Create> createCommand = requireSingleCommand(tx.getCommands(), IOUContract.Commands.Create.class);
+            requireThat(require -> {
+                // Generic constraints around the IOU transaction.
+                require.using("No inputs should be consumed when issuing an IOU.",
+                        tx.getInputs().isEmpty());
+                require.using("Only one output state should be created.",
+                        tx.getOutputs().size() == 1);
+                final IOUState out = tx.outputsOfType(IOUState.class).get(0);
+                require.using("The lender and the borrower cannot be the same entity.",
+                        out.getLender() != out.getBorrower());
+                require.using("All of the participants must be signers.",
+                        createCommand.getSigners().containsAll(out.getParticipants().stream().map(AbstractParty::getOwningKey).collect(Collectors.toList())));
+
+                // IOU-specific constraints.
+                require.using("The IOU's value must be non-negative.",
+                        out.getValue() > 0);
+                require.using("The IOU's issuance time must be set.",
+                        out.getIssuedAt() != null);
+                require.using("The IOU's maturity must be after its issuance.",
+                        out.getMaturity() == null || out.getMaturity().isAfter(out.getIssuedAt()));
+
+                return null;
+            });
+        } else if (command.getValue() instanceof IOUContract.Commands.Destroy) {
+            final CommandWithParties<IOUContract.Commands.Destroy> destroyCommand = requireSingleCommand(tx.getCommands(), IOUContract.Commands.Destroy.class);
+            requireThat(require -> {
+                // Generic constraints around the IOU transaction.
+                require.using("Only one input should be consumed when destroying/closing an IOU.",
+                        tx.getInputs().size() == 1);
+                require.using("No output state should be created.",
+                        tx.getOutputs().isEmpty());
+                require.using("Input must be IOUState type",
+                        tx.getInput(0) instanceof IOUState);
+
+                IOUState inputIOU = (IOUState) tx.getInput(0);
+                require.using("IOU Lender must be  the signer for closing/destroying IOUState",
+                        destroyCommand.getSigners().contains(inputIOU.getLender().getOwningKey()));
+                return null;
+            });
+        } else { //this will catch any invalid command passed.
+            throw new IllegalArgumentException(" Unknown command is provided...");
+        }
+    }
+}
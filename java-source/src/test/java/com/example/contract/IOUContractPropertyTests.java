@@ -0,0 +1,179 @@
+package com.example.contract;
+
+import com.example.state.IOUState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.testing.core.TestIdentity;
+import org.junit.Test;
+
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.example.contract.IOUContract.IOU_CONTRACT_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Generates random transactions and checks that [IOUContract] accepts exactly those that [BaselineIOUContract], the
+ * verifier it replaced, accepts. The one intended difference is that an issuance must now also carry a time window
+ * holding the IOU's issuance time. The seed and iteration count can be overridden with the 'iou.property.seed' and
+ * 'iou.property.iterations' system properties.
+ * <p>
+ * The rewrite also changed the exceptions that reject a transaction with no command or with a repeated command. Both
+ * verifiers still reject them, and the explicit tests at the end pin down the new exception types.
+ */
+public class IOUContractPropertyTests {
+    static private TestIdentity megaCorp = new TestIdentity(new CordaX500Name("MegaCorp", "London", "GB"));
+    static private TestIdentity miniCorp = new TestIdentity(new CordaX500Name("MiniCorp", "London", "GB"));
+    static private TestIdentity notary = new TestIdentity(new CordaX500Name("Notary", "London", "GB"));
+    static private final int[] values = {-1, 0, 1, 100};
+    static private final Instant issuedAt = Instant.parse("2018-01-01T00:00:00Z");
+    static private final TimeWindow[] timeWindows = {
+            null,
+            TimeWindow.withTolerance(issuedAt, Duration.ofSeconds(30)),
+            TimeWindow.withTolerance(issuedAt.plusSeconds(3600), Duration.ofSeconds(30))
+    };
+    static private final Contract contract = new IOUContract();
+    static private final Contract baseline = new BaselineIOUContract();
+
+    private final long seed = Long.getLong("iou.property.seed", 42L);
+    private final int iterations = Integer.getInteger("iou.property.iterations", 200);
+
+    @Test
+    public void createAcceptsWhatTheBaselineAcceptsWithinATimeWindow() {
+        Random random = new Random(seed);
+        for (int i = 0; i < iterations; i++) {
+            final List<IOUState> inputs = randomStates(random, random.nextInt(2));
+            final List<IOUState> outputs = randomStates(random, random.nextInt(3));
+            final TimeWindow timeWindow = timeWindows[random.nextInt(timeWindows.length)];
+            final LedgerTransaction tx = transaction(inputs, outputs, randomSigners(random), timeWindow, new IOUContract.Commands.Create());
+
+            boolean withinTimeWindow = timeWindow != null;
+            for (IOUState out : outputs) {
+                withinTimeWindow &= timeWindow != null && timeWindow.contains(out.getIssuedAt());
+            }
+            check(accepts(baseline, tx) && withinTimeWindow, tx, i);
+        }
+    }
+
+    @Test
+    public void destroyAcceptsWhatTheBaselineAccepts() {
+        Random random = new Random(seed);
+        for (int i = 0; i < iterations; i++) {
+            final LedgerTransaction tx = transaction(randomStates(random, random.nextInt(3)), randomStates(random, random.nextInt(2)),
+                    randomSigners(random), null, new IOUContract.Commands.Destroy());
+            check(accepts(baseline, tx), tx, i);
+        }
+    }
+
+    @Test
+    public void transactionWithoutACommandIsRejectedWithIllegalStateException() {
+        final LedgerTransaction tx = transaction(ImmutableList.of(), randomStates(new Random(seed), 1), ImmutableList.of());
+        // The baseline failed on tx.getCommand(0) with an IndexOutOfBoundsException instead.
+        assertRejectedWith(IndexOutOfBoundsException.class, baseline, tx);
+        assertRejectedWith(IllegalStateException.class, contract, tx);
+    }
+
+    @Test
+    public void repeatedCommandIsRejectedWithIllegalStateException() {
+        final List<PublicKey> signers = ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey());
+        final LedgerTransaction tx = transaction(ImmutableList.of(), randomStates(new Random(seed), 1), ImmutableList.of(
+                command(signers, new IOUContract.Commands.Create()),
+                command(signers, new IOUContract.Commands.Create())));
+        // The baseline failed in requireSingleCommand with the IllegalArgumentException of Kotlin's single() instead.
+        assertRejectedWith(IllegalArgumentException.class, baseline, tx);
+        assertRejectedWith(IllegalStateException.class, contract, tx);
+    }
+
+    private static void check(boolean expected, LedgerTransaction tx, int iteration) {
+        if (accepts(contract, tx) != expected) {
+            throw new AssertionError(String.format("Iteration %d: expected %s for inputs=%s outputs=%s signers=%s timeWindow=%s",
+                    iteration, expected ? "success" : "failure", tx.getInputStates(), tx.getOutputStates(),
+                    tx.getCommands().get(0).getSigners().size(), tx.getTimeWindow()));
+        }
+    }
+
+    private static boolean accepts(Contract verifier, LedgerTransaction tx) {
+        try {
+            verifier.verify(tx);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void assertRejectedWith(Class<? extends RuntimeException> expected, Contract verifier, LedgerTransaction tx) {
+        try {
+            verifier.verify(tx);
+            fail("Expected " + expected.getSimpleName());
+        } catch (RuntimeException e) {
+            assertEquals(expected, e.getClass());
+        }
+    }
+
+    private static LedgerTransaction transaction(List<IOUState> inputs, List<IOUState> outputs, List<PublicKey> signers,
+                                                 TimeWindow timeWindow, CommandData command) {
+        return transaction(inputs, outputs, ImmutableList.of(command(signers, command)), timeWindow);
+    }
+
+    private static LedgerTransaction transaction(List<IOUState> inputs, List<IOUState> outputs, List<CommandWithParties<CommandData>> commands) {
+        return transaction(inputs, outputs, commands, timeWindows[1]);
+    }
+
+    /**
+     * Builds the transaction directly rather than through the ledger DSL, so that both verifiers can be run on it.
+     */
+    private static LedgerTransaction transaction(List<IOUState> inputs, List<IOUState> outputs, List<CommandWithParties<CommandData>> commands,
+                                                 TimeWindow timeWindow) {
+        final Party notaryParty = notary.getParty();
+        final List<StateAndRef<ContractState>> inputRefs = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            inputRefs.add(new StateAndRef<>(
+                    new TransactionState<>(inputs.get(i), IOU_CONTRACT_ID, notaryParty),
+                    new StateRef(SecureHash.randomSHA256(), i)));
+        }
+        final List<TransactionState<ContractState>> outputStates = new ArrayList<>(outputs.size());
+        for (IOUState output : outputs) {
+            outputStates.add(new TransactionState<>(output, IOU_CONTRACT_ID, notaryParty));
+        }
+        return new LedgerTransaction(inputRefs, outputStates, commands, ImmutableList.of(), SecureHash.randomSHA256(),
+                notaryParty, timeWindow, new PrivacySalt());
+    }
+
+    private static CommandWithParties<CommandData> command(List<PublicKey> signers, CommandData command) {
+        return new CommandWithParties<>(signers, ImmutableList.of(), command);
+    }
+
+    private static List<IOUState> randomStates(Random random, int count) {
+        List<IOUState> states = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Party lender = random.nextBoolean() ? miniCorp.getParty() : megaCorp.getParty();
+            Party borrower = random.nextInt(4) == 0 ? lender : (lender.equals(miniCorp.getParty()) ? megaCorp.getParty() : miniCorp.getParty());
+            Instant maturity;
+            switch (random.nextInt(3)) {
+                case 0: maturity = null; break;
+                case 1: maturity = issuedAt.plusSeconds(3600); break;
+                default: maturity = issuedAt.minusSeconds(3600); break;
+            }
+            states.add(new IOUState(values[random.nextInt(values.length)], lender, borrower, issuedAt, maturity, new UniqueIdentifier()));
+        }
+        return states;
+    }
+
+    private static List<PublicKey> randomSigners(Random random) {
+        List<PublicKey> signers = new ArrayList<>(2);
+        if (random.nextInt(4) != 0) signers.add(megaCorp.getPublicKey());
+        if (random.nextInt(4) != 0) signers.add(miniCorp.getPublicKey());
+        // A command must have at least one signer.
+        if (signers.isEmpty()) signers.add(random.nextBoolean() ? megaCorp.getPublicKey() : miniCorp.getPublicKey());
+        return signers;
+    }
+}
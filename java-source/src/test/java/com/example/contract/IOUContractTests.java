@@ -2,12 +2,17 @@ package com.example.contract;
 
 import com.example.state.IOUState;
 import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.TimeWindow;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
 import net.corda.testing.core.TestIdentity;
 import net.corda.testing.node.MockServices;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.time.Instant;
+
 import static com.example.contract.IOUContract.IOU_CONTRACT_ID;
 import static net.corda.testing.node.NodeTestUtils.ledger;
 
@@ -16,13 +21,23 @@ public class IOUContractTests {
     static private TestIdentity megaCorp = new TestIdentity(new CordaX500Name("MegaCorp", "London", "GB"));
     static private TestIdentity miniCorp = new TestIdentity(new CordaX500Name("MiniCorp", "London", "GB"));
     static private int iouValue = 1;
+    static private final Instant issuedAt = Instant.parse("2018-01-01T00:00:00Z");
+    static private final TimeWindow issuanceWindow = TimeWindow.withTolerance(issuedAt, Duration.ofSeconds(30));
+
+    /**
+     * An open-ended IOU issued at [issuedAt].
+     */
+    static private IOUState iou(int value, Party lender, Party borrower) {
+        return new IOUState(value, lender, borrower, issuedAt, null, new UniqueIdentifier());
+    }
 
     @Test
     public void transactionMustIncludeCreateCommand() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
                 tx.fails();
+                tx.timeWindow(issuanceWindow);
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
                 tx.verifies();
                 return null;
@@ -35,7 +50,7 @@ public class IOUContractTests {
     public void transactionMustIncludeDestroyCommand() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.input(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.input(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
                 tx.fails();
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Destroy());
                 tx.verifies();
@@ -49,8 +64,8 @@ public class IOUContractTests {
     public void destroyTransactionMustHaveZeroOutput() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.input(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.input(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Destroy());
                 tx.failsWith("No output state should be created.");
                 return null;
@@ -63,7 +78,7 @@ public class IOUContractTests {
     public void lenderIsNotDestroyerOfIOU() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                IOUState input = new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier());
+                IOUState input = iou(iouValue, miniCorp.getParty(), megaCorp.getParty());
                 tx.input(IOU_CONTRACT_ID, input);
                 tx.command(ImmutableList.of( megaCorp.getPublicKey()), new IOUContract.Commands.Destroy());
                 tx.fails();
@@ -79,8 +94,9 @@ public class IOUContractTests {
     public void transactionMustHaveNoInputs() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.input(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.input(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
                 tx.failsWith("No inputs should be consumed when issuing an IOU.");
                 return null;
@@ -93,8 +109,9 @@ public class IOUContractTests {
     public void transactionMustHaveOneOutput() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
                 tx.failsWith("Only one output state should be created.");
                 return null;
@@ -107,7 +124,8 @@ public class IOUContractTests {
     public void lenderMustSignTransaction() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
                 tx.command(miniCorp.getPublicKey(), new IOUContract.Commands.Create());
                 tx.failsWith("All of the participants must be signers.");
                 return null;
@@ -120,7 +138,8 @@ public class IOUContractTests {
     public void borrowerMustSignTransaction() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
                 tx.command(megaCorp.getPublicKey(), new IOUContract.Commands.Create());
                 tx.failsWith("All of the participants must be signers.");
                 return null;
@@ -133,7 +152,8 @@ public class IOUContractTests {
     public void lenderIsNotBorrower() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, megaCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, megaCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
                 tx.failsWith("The lender and the borrower cannot be the same entity.");
                 return null;
@@ -150,12 +170,367 @@ public class IOUContractTests {
     public void cannotCreateNegativeValueIOUs() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(-1, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(-1, miniCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
+                tx.failsWith("The IOU's value must be non-negative.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void maturityMustBeAfterIssuance() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), issuedAt, issuedAt.minusSeconds(1), new UniqueIdentifier()));
+                tx.timeWindow(issuanceWindow);
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
+                tx.failsWith("The IOU's maturity must be after its issuance.");
+                return null;
+            });
+            ledger.transaction(tx -> {
+                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), issuedAt, issuedAt.plusSeconds(3600), new UniqueIdentifier()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
+                tx.verifies();
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void issuanceTimeMustBeSet() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), null, null, new UniqueIdentifier()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
+                tx.failsWith("The IOU's issuance time must be set.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void issuanceMustHaveATimeWindow() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
+                tx.failsWith("IOUs must be issued within a time window.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void issuanceTimeMustBeWithinTheTimeWindow() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), issuedAt.minusSeconds(3600), null, new UniqueIdentifier()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
+                tx.failsWith("The IOU's issuance time must be within the transaction's time window.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void settleReducesValueUnderSameLinearId() {
+        IOUState input = iou(10, miniCorp.getParty(), megaCorp.getParty());
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, input);
+                tx.output(IOU_CONTRACT_ID, input.withValue(4));
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Settle());
+                tx.verifies();
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void settleMustReduceValue() {
+        IOUState input = iou(10, miniCorp.getParty(), megaCorp.getParty());
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, input);
+                tx.output(IOU_CONTRACT_ID, input.withValue(10));
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Settle());
+                tx.failsWith("A partial repayment must reduce the IOU's value.");
+                return null;
+            });
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, input);
+                tx.output(IOU_CONTRACT_ID, input.withValue(0));
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Settle());
                 tx.failsWith("The IOU's value must be non-negative.");
                 return null;
             });
             return null;
         }));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void settleMustKeepLinearIdAndParties() {
+        IOUState input = iou(10, miniCorp.getParty(), megaCorp.getParty());
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, input);
+                tx.output(IOU_CONTRACT_ID, new IOUState(4, miniCorp.getParty(), megaCorp.getParty(), input.getIssuedAt(), null, new UniqueIdentifier()));
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Settle());
+                tx.failsWith("The settled IOU must keep its linearId.");
+                return null;
+            });
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, input);
+                tx.output(IOU_CONTRACT_ID, new IOUState(4, megaCorp.getParty(), miniCorp.getParty(), input.getIssuedAt(), null, input.getLinearId()));
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Settle());
+                tx.failsWith("The lender and the borrower cannot change when settling an IOU.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void settleMustBeSignedByBothParties() {
+        IOUState input = iou(10, miniCorp.getParty(), megaCorp.getParty());
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, input);
+                tx.output(IOU_CONTRACT_ID, input.withValue(4));
+                tx.command(miniCorp.getPublicKey(), new IOUContract.Commands.Settle());
+                tx.failsWith("All of the participants must be signers.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void netReplacesOffsettingIOUsWithTheNetIOU() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, iou(10, miniCorp.getParty(), megaCorp.getParty()));
+                tx.input(IOU_CONTRACT_ID, iou(4, megaCorp.getParty(), miniCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(6, miniCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Net());
+                tx.verifies();
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void netMustHaveATimeWindowHoldingTheNetIOUsIssuance() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, iou(10, miniCorp.getParty(), megaCorp.getParty()));
+                tx.input(IOU_CONTRACT_ID, iou(4, megaCorp.getParty(), miniCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(6, miniCorp.getParty(), megaCorp.getParty()));
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Net());
+                tx.failsWith("IOUs must be issued within a time window.");
+                return null;
+            });
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, iou(10, miniCorp.getParty(), megaCorp.getParty()));
+                tx.input(IOU_CONTRACT_ID, iou(4, megaCorp.getParty(), miniCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, new IOUState(6, miniCorp.getParty(), megaCorp.getParty(), issuedAt.minusSeconds(3600), null, new UniqueIdentifier()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Net());
+                tx.failsWith("The IOU's issuance time must be within the transaction's time window.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void netOutputMustCarryTheNetValueFromCreditorToDebtor() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, iou(10, miniCorp.getParty(), megaCorp.getParty()));
+                tx.input(IOU_CONTRACT_ID, iou(4, megaCorp.getParty(), miniCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(14, miniCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Net());
+                tx.failsWith("The netted IOU must carry the net value owed.");
+                return null;
+            });
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, iou(10, miniCorp.getParty(), megaCorp.getParty()));
+                tx.input(IOU_CONTRACT_ID, iou(4, megaCorp.getParty(), miniCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(6, megaCorp.getParty(), miniCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Net());
+                tx.failsWith("The netted IOU must run from the net creditor to the net debtor.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void netOutputMustNotMoveTheDebtToAThirdParty() {
+        TestIdentity otherCorp = new TestIdentity(new CordaX500Name("OtherCorp", "Paris", "FR"));
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, iou(10, miniCorp.getParty(), megaCorp.getParty()));
+                tx.input(IOU_CONTRACT_ID, iou(4, megaCorp.getParty(), miniCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(6, miniCorp.getParty(), otherCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey(), otherCorp.getPublicKey()), new IOUContract.Commands.Net());
+                tx.failsWith("The netted IOU must run from the net creditor to the net debtor.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void netIOUsMustShareTheirMaturityWithTheNetIOU() {
+        Instant maturity = Instant.parse("2019-01-01T00:00:00Z");
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, new IOUState(10, miniCorp.getParty(), megaCorp.getParty(), issuedAt, maturity, new UniqueIdentifier()));
+                tx.input(IOU_CONTRACT_ID, new IOUState(4, megaCorp.getParty(), miniCorp.getParty(), issuedAt, null, new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, new IOUState(6, miniCorp.getParty(), megaCorp.getParty(), issuedAt, maturity, new UniqueIdentifier()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Net());
+                tx.failsWith("All netted IOUs must have the same maturity.");
+                return null;
+            });
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, new IOUState(10, miniCorp.getParty(), megaCorp.getParty(), issuedAt, maturity, new UniqueIdentifier()));
+                tx.input(IOU_CONTRACT_ID, new IOUState(4, megaCorp.getParty(), miniCorp.getParty(), issuedAt, maturity, new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, new IOUState(6, miniCorp.getParty(), megaCorp.getParty(), issuedAt, null, new UniqueIdentifier()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Net());
+                tx.failsWith("The netted IOU must keep the maturity of the IOUs it replaces.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void netToZeroProducesNoOutput() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, iou(5, miniCorp.getParty(), megaCorp.getParty()));
+                tx.input(IOU_CONTRACT_ID, iou(5, megaCorp.getParty(), miniCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Net());
+                tx.verifies();
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void netInputsMustBeBetweenTheSameParties() {
+        TestIdentity otherCorp = new TestIdentity(new CordaX500Name("OtherCorp", "Paris", "FR"));
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, iou(10, miniCorp.getParty(), megaCorp.getParty()));
+                tx.input(IOU_CONTRACT_ID, iou(4, otherCorp.getParty(), miniCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(6, miniCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey(), otherCorp.getPublicKey()), new IOUContract.Commands.Net());
+                tx.failsWith("All netted IOUs must be between the same two parties.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void createManyIssuesOneIOUPerBorrower() {
+        TestIdentity otherCorp = new TestIdentity(new CordaX500Name("OtherCorp", "Paris", "FR"));
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), otherCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(miniCorp.getPublicKey(), megaCorp.getPublicKey(), otherCorp.getPublicKey()), new IOUContract.Commands.CreateMany());
+                tx.verifies();
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void createManyMustBeSignedByEveryBorrower() {
+        TestIdentity otherCorp = new TestIdentity(new CordaX500Name("OtherCorp", "Paris", "FR"));
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), otherCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(miniCorp.getPublicKey(), megaCorp.getPublicKey()), new IOUContract.Commands.CreateMany());
+                tx.failsWith("All of the participants must be signers.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void createManyMustHaveASingleLender() {
+        TestIdentity otherCorp = new TestIdentity(new CordaX500Name("OtherCorp", "Paris", "FR"));
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, otherCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(miniCorp.getPublicKey(), megaCorp.getPublicKey(), otherCorp.getPublicKey()), new IOUContract.Commands.CreateMany());
+                tx.failsWith("All IOUs issued together must have the same lender.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void createManyMustNotRepeatABorrower() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(miniCorp.getPublicKey(), megaCorp.getPublicKey()), new IOUContract.Commands.CreateMany());
+                tx.failsWith("Each borrower may appear only once when issuing IOUs together.");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+    @Test
+    public void createManyMustHaveNoInputs() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.output(IOU_CONTRACT_ID, iou(iouValue, miniCorp.getParty(), megaCorp.getParty()));
+                tx.timeWindow(issuanceWindow);
+                tx.command(ImmutableList.of(miniCorp.getPublicKey(), megaCorp.getPublicKey()), new IOUContract.Commands.CreateMany());
+                tx.failsWith("No inputs should be consumed when issuing IOUs.");
+                return null;
+            });
+            return null;
+        }));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.flow;
+
+import net.corda.testing.node.StartedMockNode;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the flow checkpoints a [StartedMockNode] has persisted, straight from its NODE_CHECKPOINTS table.
+ * <p>
+ * A flow holds a checkpoint from its first suspension until it completes, so the checkpoint count is a proxy for the
+ * number of flows in flight. Checkpoints left behind once every flow has finished point to flows that hung.
+ */
+public class CheckpointInspector {
+    private CheckpointInspector() {
+    }
+
+    /**
+     * The number of checkpoints the node currently holds.
+     */
+    public static long count(StartedMockNode node) {
+        return queryLong(node, "SELECT COUNT(*) FROM NODE_CHECKPOINTS");
+    }
+
+    /**
+     * The total serialised size of the node's checkpoints, in bytes.
+     */
+    public static long totalBytes(StartedMockNode node) {
+        return queryLong(node, "SELECT COALESCE(SUM(LENGTH(checkpoint_value)), 0) FROM NODE_CHECKPOINTS");
+    }
+
+    /**
+     * The node's serialised checkpoints, keyed by the run id of the flow each belongs to.
+     */
+    public static Map<String, byte[]> checkpoints(StartedMockNode node) {
+        return node.transaction(() -> {
+            final Connection connection = node.getServices().jdbcSession();
+            final Map<String, byte[]> checkpoints = new HashMap<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet results = statement.executeQuery("SELECT checkpoint_id, checkpoint_value FROM NODE_CHECKPOINTS")) {
+                while (results.next()) {
+                    checkpoints.put(results.getString(1), results.getBytes(2));
+                }
+                return checkpoints;
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot read the checkpoints of " + node.getInfo().getLegalIdentities().get(0), e);
+            }
+        });
+    }
+
+    public static long count(Collection<StartedMockNode> nodes) {
+        long total = 0;
+        for (StartedMockNode node : nodes) {
+            total += count(node);
+        }
+        return total;
+    }
+
+    private static long queryLong(StartedMockNode node, String sql) {
+        return node.transaction(() -> {
+            // The connection belongs to the node's transaction, so it is not closed here.
+            final Connection connection = node.getServices().jdbcSession();
+            try (Statement statement = connection.createStatement();
+                 ResultSet results = statement.executeQuery(sql)) {
+                results.next();
+                return results.getLong(1);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot read the checkpoints of " + node.getInfo().getLegalIdentities().get(0), e);
+            }
+        });
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.flow;
+
+import com.example.service.ServicesReady;
+import com.example.state.IOUState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import kotlin.Pair;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reports how many bytes each flow writes to its checkpoint at every suspension, so that changes to what a flow holds
+ * across suspensions can be measured.
+ * <p>
+ * Each scenario starts one flow on a three-node [MockNetwork] and pumps the network a message at a time. After every
+ * round it reads NODE_CHECKPOINTS on each node and records each checkpoint that is new or has changed, attributed to
+ * the top-level flow that owns it. Subflows such as [CollectSignaturesFlow] and [FinalityFlow] are checkpointed as part
+ * of their parent. A flow that suspends more than once within a single round is only seen at its last suspension.
+ * <p>
+ * Configured with system properties:
+ * <pre>
+ *   checkpoints.maxRounds=10000 network rounds after which a scenario is abandoned as hung
+ *   checkpoints.results=build/reports/checkpoint-sizes.json
+ * </pre>
+ * Run with 'gradlew checkpointReport'.
+ */
+public class CheckpointSizeReport {
+    private final int maxRounds = Integer.getInteger("checkpoints.maxRounds", 10_000);
+    private final File resultsFile = new File(System.getProperty("checkpoints.results", "build/reports/checkpoint-sizes.json"));
+
+    private MockNetwork network;
+    private List<StartedMockNode> nodes;
+
+    public static void main(String[] args) throws Exception {
+        new CheckpointSizeReport().run();
+    }
+
+    private void run() throws IOException, InterruptedException, ExecutionException {
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
+        final Map<String, Object> results = new LinkedHashMap<>();
+        try {
+            nodes = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                final StartedMockNode node = network.createPartyNode(null);
+                node.registerInitiatedFlow(ExampleFlow.Acceptor.class);
+                node.registerInitiatedFlow(ExampleFlow.SettleAcceptor.class);
+                node.registerInitiatedFlow(ExampleFlow.MultiIssueAcceptor.class);
+                nodes.add(node);
+            }
+            network.runNetwork();
+            ServicesReady.await(network, nodes);
+            final StartedMockNode a = nodes.get(0);
+            final Party b = identity(nodes.get(1));
+            final Party c = identity(nodes.get(2));
+
+            final SignedTransaction issued = measure("create", results, a.startFlow(new ExampleFlow.Initiator(10, b)));
+            final IOUState iou = issued.getTx().outputsOfType(IOUState.class).get(0);
+            measure("settle", results, nodes.get(1).startFlow(new ExampleFlow.Settler(iou.getLinearId(), 4)));
+            measure("destroy", results, a.startFlow(new ExampleFlow.Destroyer(iou.getLinearId())));
+            measure("create-many", results, a.startFlow(new ExampleFlow.MultiIssuer(10, ImmutableList.of(b, c))));
+        } finally {
+            network.stopNodes();
+        }
+
+        final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        resultsFile.getAbsoluteFile().getParentFile().mkdirs();
+        mapper.writeValue(resultsFile, results);
+        System.out.println("Results written to " + resultsFile.getAbsolutePath());
+    }
+
+    /**
+     * Pumps the network until the flow and every flow it started have finished, recording each checkpoint write.
+     */
+    private <T> T measure(String scenario, Map<String, Object> results, CordaFuture<T> future) throws InterruptedException, ExecutionException {
+        final Map<StartedMockNode, Map<String, byte[]>> previous = new HashMap<>();
+        final Map<String, String> flowNames = new HashMap<>();
+        // Flow name to the sizes of its successive checkpoint writes.
+        final Map<String, List<Integer>> writes = new TreeMap<>();
+
+        int rounds = 0;
+        boolean pending = true;
+        while (pending && rounds < maxRounds) {
+            pending = !future.isDone();
+            for (StartedMockNode node : nodes) {
+                recordFlowNames(node, flowNames);
+                final Map<String, byte[]> current = CheckpointInspector.checkpoints(node);
+                final Map<String, byte[]> before = previous.getOrDefault(node, Collections.emptyMap());
+                for (Map.Entry<String, byte[]> checkpoint : current.entrySet()) {
+                    if (!Arrays.equals(checkpoint.getValue(), before.get(checkpoint.getKey()))) {
+                        final String flow = flowNames.getOrDefault(checkpoint.getKey(), "unknown") + "@" + node.getInfo().getLegalIdentities().get(0).getName().getOrganisation();
+                        writes.computeIfAbsent(flow, name -> new ArrayList<>()).add(checkpoint.getValue().length);
+                    }
+                }
+                pending |= !current.isEmpty();
+                previous.put(node, current);
+            }
+            network.runNetwork(1);
+            rounds++;
+        }
+
+        final Map<String, Object> flows = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Integer>> flow : writes.entrySet()) {
+            final List<Integer> sizes = flow.getValue();
+            final IntSummaryStatistics stats = sizes.stream().mapToInt(Integer::intValue).summaryStatistics();
+            flows.put(flow.getKey(), ImmutableMap.of(
+                    "writes", sizes,
+                    "maxBytes", stats.getMax(),
+                    "meanBytes", stats.getAverage(),
+                    "totalBytes", stats.getSum()));
+            System.out.printf("%-12s %-40s writes=%-3d max=%-7d mean=%-9.0f total=%d%n",
+                    scenario, flow.getKey(), stats.getCount(), stats.getMax(), stats.getAverage(), stats.getSum());
+        }
+        results.put(scenario, ImmutableMap.of("networkRounds", rounds, "flows", flows));
+        return future.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void recordFlowNames(StartedMockNode node, Map<String, String> flowNames) {
+        final List<Pair<FlowLogic<?>, CordaFuture<?>>> running = (List) node.findStateMachines(FlowLogic.class);
+        for (Pair<FlowLogic<?>, CordaFuture<?>> flow : running) {
+            final FlowLogic<?> logic = flow.getFirst();
+            flowNames.put(logic.getRunId().getUuid().toString(), logic.getClass().getSimpleName());
+        }
+    }
+
+    private static Party identity(StartedMockNode node) {
+        return node.getInfo().getLegalIdentities().get(0);
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.flow;
+
+import com.example.service.ServicesReady;
+import com.example.state.IOUState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs waves of concurrent [ExampleFlow.Initiator] and [ExampleFlow.Destroyer] flows across a [MockNetwork], so that
+ * flow-level changes can be measured in process without deploying nodes.
+ * <p>
+ * Each wave starts all of its flows at once and then pumps the network until they have all finished. Destroyer flows
+ * consume IOUs created by earlier waves. For every wave the benchmark reports flows per second, the peak and
+ * remaining checkpoint counts, and the heap growth over the wave, measured after a GC.
+ * <p>
+ * Configured with system properties:
+ * <pre>
+ *   benchmark.nodes=4           party nodes, besides the notary
+ *   benchmark.flows=500         flows started per wave
+ *   benchmark.waves=4           waves; the first only creates IOUs
+ *   benchmark.destroyRatio=0.25 fraction of each later wave that destroys IOUs
+ *   benchmark.sampleEvery=10    network rounds between checkpoint samples
+ *   benchmark.maxRounds=100000  network rounds after which a wave is abandoned as hung
+ *   benchmark.results=build/reports/flow-benchmark.json
+ * </pre>
+ * Run with 'gradlew flowBenchmark'.
+ */
+public class FlowThroughputBenchmark {
+    private final int nodeCount = Integer.getInteger("benchmark.nodes", 4);
+    private final int flowsPerWave = Integer.getInteger("benchmark.flows", 500);
+    private final int waves = Integer.getInteger("benchmark.waves", 4);
+    private final double destroyRatio = Double.parseDouble(System.getProperty("benchmark.destroyRatio", "0.25"));
+    private final int sampleEvery = Integer.getInteger("benchmark.sampleEvery", 10);
+    private final int maxRounds = Integer.getInteger("benchmark.maxRounds", 100_000);
+    private final File resultsFile = new File(System.getProperty("benchmark.results", "build/reports/flow-benchmark.json"));
+
+    private final Random random = new Random(42);
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private MockNetwork network;
+    private List<StartedMockNode> nodes;
+    // The IOUs available to destroy, each with the node of its lender, which starts the Destroyer.
+    private final Deque<Map.Entry<StartedMockNode, UniqueIdentifier>> destroyable = new ArrayDeque<>();
+
+    public static void main(String[] args) throws Exception {
+        new FlowThroughputBenchmark().run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
+        final List<Map<String, Object>> results = new ArrayList<>();
+        try {
+            nodes = new ArrayList<>();
+            for (int i = 0; i < nodeCount; i++) {
+                final StartedMockNode node = network.createPartyNode(null);
+                node.registerInitiatedFlow(ExampleFlow.Acceptor.class);
+                nodes.add(node);
+            }
+            network.runNetwork();
+            ServicesReady.await(network, nodes);
+
+            for (int wave = 0; wave < waves; wave++) {
+                final Map<String, Object> result = runWave(wave);
+                System.out.println(result);
+                results.add(result);
+            }
+        } finally {
+            network.stopNodes();
+        }
+
+        final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        resultsFile.getAbsoluteFile().getParentFile().mkdirs();
+        mapper.writeValue(resultsFile, ImmutableMap.of(
+                "nodes", nodeCount,
+                "flowsPerWave", flowsPerWave,
+                "destroyRatio", destroyRatio,
+                "waves", results));
+        System.out.println("Results written to " + resultsFile.getAbsolutePath());
+    }
+
+    private Map<String, Object> runWave(int wave) throws InterruptedException {
+        final long heapBefore = usedHeapAfterGc();
+        final int destroys = wave == 0 ? 0 : Math.min(destroyable.size(), (int) (flowsPerWave * destroyRatio));
+
+        final long start = System.nanoTime();
+        final List<CordaFuture<SignedTransaction>> creates = new ArrayList<>();
+        final Map<CordaFuture<SignedTransaction>, StartedMockNode> creators = new HashMap<>();
+        final List<CordaFuture<SignedTransaction>> all = new ArrayList<>();
+        for (int i = 0; i < flowsPerWave; i++) {
+            if (i < destroys) {
+                final Map.Entry<StartedMockNode, UniqueIdentifier> iou = destroyable.poll();
+                all.add(iou.getKey().startFlow(new ExampleFlow.Destroyer(iou.getValue())));
+            } else {
+                final StartedMockNode lender = nodes.get(random.nextInt(nodes.size()));
+                StartedMockNode borrower = nodes.get(random.nextInt(nodes.size()));
+                while (borrower == lender) {
+                    borrower = nodes.get(random.nextInt(nodes.size()));
+                }
+                final CordaFuture<SignedTransaction> future = lender.startFlow(new ExampleFlow.Initiator(1 + random.nextInt(100), identity(borrower)));
+                creates.add(future);
+                creators.put(future, lender);
+                all.add(future);
+            }
+        }
+
+        long peakCheckpoints = CheckpointInspector.count(nodes);
+        int rounds = 0;
+        while (!allDone(all) && rounds < maxRounds) {
+            network.runNetwork(1);
+            if (++rounds % sampleEvery == 0) {
+                peakCheckpoints = Math.max(peakCheckpoints, CheckpointInspector.count(nodes));
+            }
+        }
+        network.runNetwork();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        int failed = 0;
+        int unfinished = 0;
+        for (CordaFuture<SignedTransaction> future : all) {
+            if (!future.isDone()) {
+                unfinished++;
+                continue;
+            }
+            try {
+                final SignedTransaction stx = future.get();
+                if (creators.containsKey(future)) {
+                    final IOUState iou = stx.getTx().outputsOfType(IOUState.class).get(0);
+                    destroyable.add(new AbstractMap.SimpleImmutableEntry<>(creators.get(future), iou.getLinearId()));
+                }
+            } catch (ExecutionException e) {
+                failed++;
+            }
+        }
+
+        final long heapAfter = usedHeapAfterGc();
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("wave", wave);
+        result.put("creates", creates.size());
+        result.put("destroys", destroys);
+        result.put("failed", failed);
+        result.put("unfinished", unfinished);
+        result.put("seconds", seconds);
+        result.put("flowsPerSecond", (all.size() - failed - unfinished) / seconds);
+        result.put("networkRounds", rounds);
+        result.put("peakCheckpoints", peakCheckpoints);
+        result.put("remainingCheckpoints", CheckpointInspector.count(nodes));
+        result.put("heapGrowthBytes", heapAfter - heapBefore);
+        return result;
+    }
+
+    private static boolean allDone(List<CordaFuture<SignedTransaction>> futures) {
+        for (CordaFuture<SignedTransaction> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Party identity(StartedMockNode node) {
+        return node.getInfo().getLegalIdentities().get(0);
+    }
+
+    private long usedHeapAfterGc() throws InterruptedException {
+        System.gc();
+        Thread.sleep(100);
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
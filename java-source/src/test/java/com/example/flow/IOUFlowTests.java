@@ -1,12 +1,21 @@
 package com.example.flow;
 
+import com.example.service.AcceptanceService;
+import com.example.service.LinearIdFilterService;
+import com.example.service.ServicesReady;
 import com.example.state.IOUState;
+import com.example.trace.TraceContext;
 import com.google.common.collect.ImmutableList;
 import net.corda.core.concurrent.CordaFuture;
 import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.TransactionState;
 import net.corda.core.contracts.TransactionVerificationException;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.identity.Party;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.testing.node.MockNetwork;
 import net.corda.testing.node.StartedMockNode;
@@ -16,10 +25,17 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class IOUFlowTests {
     private MockNetwork network;
@@ -27,15 +43,19 @@ public class IOUFlowTests {
     private StartedMockNode b;
 
     @Before
-    public void setup() {
-        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema"));
+    public void setup() throws InterruptedException {
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
         a = network.createPartyNode(null);
         b = network.createPartyNode(null);
         // For real nodes this happens automatically, but we have to manually register the flow for tests.
         for (StartedMockNode node : ImmutableList.of(a, b)) {
             node.registerInitiatedFlow(ExampleFlow.Acceptor.class);
+            node.registerInitiatedFlow(ExampleFlow.SettleAcceptor.class);
+            node.registerInitiatedFlow(ExampleFlow.NetAcceptor.class);
+            node.registerInitiatedFlow(ExampleFlow.MultiIssueAcceptor.class);
         }
         network.runNetwork();
+        ServicesReady.await(network, ImmutableList.of(a, b));
     }
 
     @After
@@ -133,4 +153,241 @@ public class IOUFlowTests {
             });
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void flowRecordsIssuanceTimeAndMaturity() throws Exception {
+        Instant maturity = Instant.now().plusSeconds(86400);
+        ExampleFlow.Initiator flow = new ExampleFlow.Initiator(1, b.getInfo().getLegalIdentities().get(0), maturity);
+        CordaFuture<SignedTransaction> future = a.startFlow(flow);
+        network.runNetwork();
+        SignedTransaction signedTx = future.get();
+
+        IOUState recordedState = (IOUState) signedTx.getTx().getOutputs().get(0).getData();
+        assertNotNull(recordedState.getIssuedAt());
+        assertEquals(maturity, recordedState.getMaturity());
+    }
+
+    @Test
+    public void flowAcceptsACallersTraceContext() throws Exception {
+        TraceContext trace = TraceContext.newTrace(TraceContext.newId());
+        ExampleFlow.Initiator flow = new ExampleFlow.Initiator(1, b.getInfo().getLegalIdentities().get(0), trace);
+        CordaFuture<SignedTransaction> future = a.startFlow(flow);
+        network.runNetwork();
+
+        SignedTransaction signedTx = future.get();
+        signedTx.verifyRequiredSignatures();
+    }
+
+    @Test
+    public void settleReducesTheIOUInBothPartiesVaults() throws Exception {
+        CordaFuture<SignedTransaction> issueFuture = a.startFlow(new ExampleFlow.Initiator(10, b.getInfo().getLegalIdentities().get(0)));
+        network.runNetwork();
+        IOUState issued = (IOUState) issueFuture.get().getTx().getOutputs().get(0).getData();
+
+        CordaFuture<SignedTransaction> settleFuture = b.startFlow(new ExampleFlow.Settler(issued.getLinearId(), 6));
+        network.runNetwork();
+        settleFuture.get();
+
+        for (StartedMockNode node : ImmutableList.of(a, b)) {
+            node.transaction(() -> {
+                List<StateAndRef<IOUState>> ious = node.getServices().getVaultService().queryBy(IOUState.class).getStates();
+                assertEquals(1, ious.size());
+                IOUState recordedState = ious.get(0).getState().getData();
+                assertEquals(Integer.valueOf(4), recordedState.getValue());
+                assertEquals(issued.getLinearId(), recordedState.getLinearId());
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void netterLeavesASingleNetIOUInBothPartiesVaults() throws Exception {
+        for (int value : new int[]{10, 20, 30}) {
+            a.startFlow(new ExampleFlow.Initiator(value, b.getInfo().getLegalIdentities().get(0)));
+            b.startFlow(new ExampleFlow.Initiator(value / 2, a.getInfo().getLegalIdentities().get(0)));
+        }
+        network.runNetwork();
+
+        // A chunk size of two forces several rounds, each folding the previous net IOU into the next chunk.
+        CordaFuture<List<SecureHash>> future = a.startFlow(new ExampleFlow.Netter(b.getInfo().getLegalIdentities().get(0), 2));
+        network.runNetwork();
+        // Six IOUs need at most five rounds; fewer if some chunk nets to zero.
+        int rounds = future.get().size();
+        assertTrue(rounds >= 1 && rounds <= 5);
+
+        for (StartedMockNode node : ImmutableList.of(a, b)) {
+            node.transaction(() -> {
+                List<StateAndRef<IOUState>> ious = node.getServices().getVaultService().queryBy(IOUState.class).getStates();
+                assertEquals(1, ious.size());
+                IOUState netState = ious.get(0).getState().getData();
+                assertEquals(Integer.valueOf(30), netState.getValue());
+                assertEquals(a.getInfo().getLegalIdentities().get(0), netState.getLender());
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void netterNetsEachMaturitySeparately() throws Exception {
+        Party partyA = a.getInfo().getLegalIdentities().get(0);
+        Party partyB = b.getInfo().getLegalIdentities().get(0);
+        Instant soon = Instant.now().plusSeconds(86400).truncatedTo(ChronoUnit.SECONDS);
+        Instant later = soon.plusSeconds(86400);
+        a.startFlow(new ExampleFlow.Initiator(10, partyB, soon));
+        b.startFlow(new ExampleFlow.Initiator(4, partyA, soon));
+        a.startFlow(new ExampleFlow.Initiator(7, partyB, later));
+        b.startFlow(new ExampleFlow.Initiator(3, partyA, later));
+        network.runNetwork();
+
+        CordaFuture<List<SecureHash>> future = a.startFlow(new ExampleFlow.Netter(partyB, 2));
+        network.runNetwork();
+        assertEquals(2, future.get().size());
+
+        for (StartedMockNode node : ImmutableList.of(a, b)) {
+            node.transaction(() -> {
+                List<StateAndRef<IOUState>> ious = node.getServices().getVaultService().queryBy(IOUState.class).getStates();
+                assertEquals(2, ious.size());
+                for (StateAndRef<IOUState> iou : ious) {
+                    IOUState netState = iou.getState().getData();
+                    assertEquals(partyA, netState.getLender());
+                    assertEquals(Integer.valueOf(netState.getMaturity().equals(soon) ? 6 : 4), netState.getValue());
+                }
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void multiIssuerRecordsOneIOUPerBorrowerInASingleTransaction() throws Exception {
+        StartedMockNode c = network.createPartyNode(null);
+        c.registerInitiatedFlow(ExampleFlow.MultiIssueAcceptor.class);
+        network.runNetwork();
+        ServicesReady.await(network, ImmutableList.of(c));
+        Party borrowerB = b.getInfo().getLegalIdentities().get(0);
+        Party borrowerC = c.getInfo().getLegalIdentities().get(0);
+
+        CordaFuture<SignedTransaction> future = a.startFlow(new ExampleFlow.MultiIssuer(5, ImmutableList.of(borrowerB, borrowerC)));
+        network.runNetwork();
+        SignedTransaction signedTx = future.get();
+        signedTx.verifyRequiredSignatures();
+        assertEquals(2, signedTx.getTx().getOutputs().size());
+
+        for (StartedMockNode node : ImmutableList.of(a, b, c)) {
+            assertEquals(signedTx, node.getServices().getValidatedTransactions().getTransaction(signedTx.getId()));
+        }
+        for (StartedMockNode node : ImmutableList.of(b, c)) {
+            node.transaction(() -> {
+                List<StateAndRef<IOUState>> ious = node.getServices().getVaultService().queryBy(IOUState.class).getStates();
+                assertEquals(1, ious.size());
+                assertEquals(node.getInfo().getLegalIdentities().get(0), ious.get(0).getState().getData().getBorrower());
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void multiIssuerFailsIfAnyBorrowerRejectsItsIOU() throws Exception {
+        CordaFuture<SignedTransaction> future = a.startFlow(new ExampleFlow.MultiIssuer(101, ImmutableList.of(b.getInfo().getLegalIdentities().get(0))));
+        network.runNetwork();
+
+        exception.expectCause(instanceOf(FlowException.class));
+        future.get();
+    }
+
+    @Test
+    public void onlyTheBorrowerCanRepayAnIOU() throws Exception {
+        CordaFuture<SignedTransaction> issueFuture = a.startFlow(new ExampleFlow.Initiator(10, b.getInfo().getLegalIdentities().get(0)));
+        network.runNetwork();
+        IOUState issued = (IOUState) issueFuture.get().getTx().getOutputs().get(0).getData();
+
+        CordaFuture<SignedTransaction> settleFuture = a.startFlow(new ExampleFlow.Settler(issued.getLinearId(), 6));
+        network.runNetwork();
+        exception.expectCause(instanceOf(FlowException.class));
+        settleFuture.get();
+    }
+
+    @Test
+    public void refusedRepaymentDoesNotReserveTheIOU() throws Exception {
+        CordaFuture<SignedTransaction> issueFuture = a.startFlow(new ExampleFlow.Initiator(10, b.getInfo().getLegalIdentities().get(0)));
+        network.runNetwork();
+        IOUState issued = (IOUState) issueFuture.get().getTx().getOutputs().get(0).getData();
+
+        CordaFuture<SignedTransaction> tooMuch = b.startFlow(new ExampleFlow.Settler(issued.getLinearId(), 10));
+        CordaFuture<SignedTransaction> settleFuture = b.startFlow(new ExampleFlow.Settler(issued.getLinearId(), 6));
+        network.runNetwork();
+        try {
+            tooMuch.get();
+            fail("Repaying the whole IOU is not a partial repayment.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowException);
+        }
+        assertEquals(Integer.valueOf(4), ((IOUState) settleFuture.get().getTx().getOutputs().get(0).getData()).getValue());
+    }
+
+    @Test
+    public void concurrentDestroyersFailFastRatherThanAtTheNotary() throws Exception {
+        CordaFuture<SignedTransaction> issueFuture = a.startFlow(new ExampleFlow.Initiator(10, b.getInfo().getLegalIdentities().get(0)));
+        network.runNetwork();
+        IOUState issued = (IOUState) issueFuture.get().getTx().getOutputs().get(0).getData();
+
+        CordaFuture<SignedTransaction> first = a.startFlow(new ExampleFlow.Destroyer(issued.getLinearId()));
+        CordaFuture<SignedTransaction> second = a.startFlow(new ExampleFlow.Destroyer(issued.getLinearId()));
+        network.runNetwork();
+
+        int failures = 0;
+        for (CordaFuture<SignedTransaction> future : ImmutableList.of(first, second)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // The loser finds the IOU reserved before signing, so it never reaches the notary.
+                assertFalse(e.getCause() instanceof NotaryException);
+                failures++;
+            }
+        }
+        assertEquals(1, failures);
+        a.transaction(() -> {
+            assertEquals(0, a.getServices().getVaultService().queryBy(IOUState.class).getStates().size());
+            return null;
+        });
+    }
+
+    @Test
+    public void borrowerTracksItsExposureToEachLenderWithoutQueryingTheVault() throws Exception {
+        Party lender = a.getInfo().getLegalIdentities().get(0);
+        CordaFuture<SignedTransaction> issueFuture = a.startFlow(new ExampleFlow.Initiator(10, b.getInfo().getLegalIdentities().get(0)));
+        network.runNetwork();
+        IOUState issued = (IOUState) issueFuture.get().getTx().getOutputs().get(0).getData();
+
+        AcceptanceService acceptance = b.getServices().cordaService(AcceptanceService.class);
+        assertEquals(10, acceptance.exposureTo(lender.getName()));
+
+        b.startFlow(new ExampleFlow.Settler(issued.getLinearId(), 6));
+        network.runNetwork();
+        assertEquals(4, acceptance.exposureTo(lender.getName()));
+    }
+
+    @Test
+    public void unknownLinearIdsAreRejectedWithoutAVaultQuery() throws Exception {
+        CordaFuture<SignedTransaction> issueFuture = a.startFlow(new ExampleFlow.Initiator(10, b.getInfo().getLegalIdentities().get(0)));
+        network.runNetwork();
+        IOUState issued = (IOUState) issueFuture.get().getTx().getOutputs().get(0).getData();
+
+        // The filter fills itself from a flow started as the node starts.
+        LinearIdFilterService linearIds = a.getServices().cordaService(LinearIdFilterService.class);
+        for (int i = 0; i < 100 && !linearIds.isReady(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(linearIds.isReady());
+        assertTrue(linearIds.mightBeUnconsumed(issued.getLinearId()));
+        assertFalse(linearIds.mightBeUnconsumed(new UniqueIdentifier()));
+
+        a.startFlow(new ExampleFlow.Destroyer(issued.getLinearId()));
+        network.runNetwork();
+        assertFalse(linearIds.mightBeUnconsumed(issued.getLinearId()));
+
+        CordaFuture<SignedTransaction> unknown = a.startFlow(new ExampleFlow.Destroyer(new UniqueIdentifier()));
+        network.runNetwork();
+        exception.expectCause(instanceOf(FlowException.class));
+        unknown.get();
+    }
+}
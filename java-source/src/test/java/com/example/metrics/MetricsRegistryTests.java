@@ -0,0 +1,41 @@
+package com.example.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTests {
+    @Test
+    public void histogramPercentilesAreWithinBucketPrecision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long millis = 1; millis <= 1000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(TimeUnit.SECONDS.toNanos(1), histogram.maxNanos());
+        assertEquals(500, histogram.percentileMillis(0.5), 500 * 0.04);
+        assertEquals(990, histogram.percentileMillis(0.99), 990 * 0.04);
+        assertEquals(1000, histogram.percentileMillis(1.0), 0.0);
+    }
+
+    @Test
+    public void flowMetricsAreRenderedInPrometheusFormat() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final MetricsRegistry.FlowMetrics flow = registry.flow("Initiator");
+        flow.finished(flow.started(), true);
+        flow.finished(flow.started(), false);
+        flow.started();
+
+        final String text = registry.toPrometheusText();
+        assertTrue(text.contains("# TYPE example_flows_started_total counter\n"));
+        assertTrue(text.contains("example_flows_started_total{flow=\"Initiator\"} 3\n"));
+        assertTrue(text.contains("example_flows_completed_total{flow=\"Initiator\"} 1\n"));
+        assertTrue(text.contains("example_flows_failed_total{flow=\"Initiator\"} 1\n"));
+        assertTrue(text.contains("example_flows_in_flight{flow=\"Initiator\"} 1\n"));
+        assertTrue(text.contains("example_flow_duration_seconds_bucket{flow=\"Initiator\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("example_flow_duration_seconds_count{flow=\"Initiator\"} 2\n"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.policy;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.identity.CordaX500Name;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class AcceptancePolicyTests {
+    private static final CordaX500Name partyA = new CordaX500Name("PartyA", "London", "GB");
+    private static final CordaX500Name partyB = new CordaX500Name("PartyB", "New York", "US");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static AcceptancePolicy parse(String json) throws IOException {
+        return AcceptancePolicy.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void defaultPolicyOnlyLimitsEachIOUTo100() {
+        AcceptancePolicy policy = AcceptancePolicy.defaults();
+        assertNull(policy.check(partyA, 100, 100, 1_000_000));
+        assertEquals("I won't accept IOUs with a value over 100.", policy.check(partyA, 101, 101, 0));
+    }
+
+    @Test
+    public void lenderLimitsOverrideTheDefaults() {
+        AcceptancePolicy policy = new AcceptancePolicy(100, 1_000, ImmutableSet.of(),
+                ImmutableMap.of(partyA, new AcceptancePolicy.Limits(500, 600)));
+        assertNull(policy.check(partyA, 500, 500, 100));
+        assertNotNull(policy.check(partyA, 500, 500, 101));
+        assertNotNull(policy.check(partyB, 500, 500, 0));
+    }
+
+    @Test
+    public void exposureCapCountsEveryIOUBeingSigned() {
+        AcceptancePolicy policy = new AcceptancePolicy(100, 250, ImmutableSet.of(), ImmutableMap.of());
+        assertNull(policy.check(partyA, 100, 200, 50));
+        assertEquals("I won't owe " + partyA + " more than 250 in total.", policy.check(partyA, 100, 200, 51));
+    }
+
+    @Test
+    public void onlyAllowedLendersAreAccepted() {
+        AcceptancePolicy policy = new AcceptancePolicy(100, Long.MAX_VALUE, ImmutableSet.of(partyA), ImmutableMap.of());
+        assertNull(policy.check(partyA, 1, 1, 0));
+        assertEquals("I won't accept IOUs from " + partyB + ".", policy.check(partyB, 1, 1, 0));
+    }
+
+    @Test
+    public void parsesLimitsAndAllowedLenders() throws IOException {
+        AcceptancePolicy policy = parse("{\"defaultMaxValue\": 50, \"allowedLenders\": [\"" + partyA + "\"]," +
+                " \"lenders\": {\"" + partyA + "\": {\"maxExposure\": 70}}}");
+        assertEquals(50, policy.limitsFor(partyA).getMaxValue());
+        assertEquals(70, policy.limitsFor(partyA).getMaxExposure());
+        assertEquals(Long.MAX_VALUE, policy.limitsFor(partyB).getMaxExposure());
+        assertNotNull(policy.check(partyB, 1, 1, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeLimits() throws IOException {
+        parse("{\"defaultMaxValue\": -1}");
+    }
+
+    @Test
+    public void storeReloadsChangesAndKeepsThePolicyOnABadEdit() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("acceptance-policy.json");
+        AcceptancePolicyStore store = new AcceptancePolicyStore(file);
+        assertSame(AcceptancePolicy.defaults(), store.current());
+
+        Files.write(file, "{\"defaultMaxValue\": 10}".getBytes(StandardCharsets.UTF_8));
+        assertTrue(store.reloadIfChanged());
+        assertEquals(10, store.current().limitsFor(partyA).getMaxValue());
+        assertFalse(store.reloadIfChanged());
+
+        Files.write(file, "{\"defaultMaxValue\": ".getBytes(StandardCharsets.UTF_8));
+        // Make sure the edit is seen even on file systems with coarse modification times.
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2_000));
+        assertFalse(store.reloadIfChanged());
+        assertEquals(10, store.current().limitsFor(partyA).getMaxValue());
+
+        Files.delete(file);
+        assertTrue(store.reloadIfChanged());
+        assertSame(AcceptancePolicy.defaults(), store.current());
+    }
+}
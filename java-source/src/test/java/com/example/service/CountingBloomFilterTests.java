@@ -0,0 +1,56 @@
+package com.example.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class CountingBloomFilterTests {
+    @Test
+    public void neverForgetsAnIdStillPresent() {
+        CountingBloomFilter filter = new CountingBloomFilter(10_000, 0.01);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            filter.add(id);
+        }
+        for (int i = 0; i < 5_000; i++) {
+            filter.remove(ids.get(i));
+        }
+        for (int i = 5_000; i < 10_000; i++) {
+            assertTrue(filter.mightContain(ids.get(i)));
+        }
+    }
+
+    @Test
+    public void falsePositiveRateStaysNearTheTarget() {
+        CountingBloomFilter filter = new CountingBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add(UUID.randomUUID());
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain(UUID.randomUUID())) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void idAddedTwiceNeedsRemovingTwice() {
+        CountingBloomFilter filter = new CountingBloomFilter(100, 0.01);
+        UUID id = UUID.randomUUID();
+        assertFalse(filter.mightContain(id));
+        filter.add(id);
+        filter.add(id);
+        filter.remove(id);
+        assertTrue(filter.mightContain(id));
+        filter.remove(id);
+        assertFalse(filter.mightContain(id));
+    }
+}
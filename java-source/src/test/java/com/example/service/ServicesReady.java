@@ -0,0 +1,40 @@
+package com.example.service;
+
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for the services that load the vault as a node starts. They do so from flows started on threads of their own,
+ * so a test that starts flows straight after creating its nodes could otherwise run them against unloaded services.
+ * In particular the [AcceptanceService] refuses every IOU until it has loaded.
+ */
+public final class ServicesReady {
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private ServicesReady() {
+    }
+
+    public static void await(MockNetwork network, List<StartedMockNode> nodes) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!ready(nodes)) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("The nodes' services did not load within " + TIMEOUT_SECONDS + " seconds.");
+            }
+            network.runNetwork();
+            Thread.sleep(10);
+        }
+    }
+
+    private static boolean ready(List<StartedMockNode> nodes) {
+        for (StartedMockNode node : nodes) {
+            if (!node.getServices().cordaService(AcceptanceService.class).isSeeded()
+                    || !node.getServices().cordaService(LinearIdFilterService.class).isReady()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}